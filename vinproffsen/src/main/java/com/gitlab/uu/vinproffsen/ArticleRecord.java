@@ -0,0 +1,86 @@
+package com.gitlab.uu.vinproffsen;
+
+import java.text.NumberFormat;
+import java.text.ParseException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Raw article read from the Systembolaget XML file. Holds the text content of each field (tag) of an
+ * <tt>artikel</tt> element so the same conversion code can be used no matter how the file was parsed.
+ *
+ * @author Niklas Persson
+ * @version 2016-03-26
+ */
+public class ArticleRecord {
+    // NumberFormat is not thread safe and articles are converted by several import threads
+    private static final ThreadLocal<NumberFormat> NUMBER_FORMAT = ThreadLocal.withInitial(() -> NumberFormat.getInstance(Locale.US));
+
+    private final Map<String, String> fields = new HashMap<>();
+
+    /**
+     * Set the text of a field. Only the first occurrence of a field is kept.
+     * @param tag field tag name
+     * @param text text content
+     */
+    public void put(String tag, String text) {
+        fields.putIfAbsent(tag, text);
+    }
+
+    /**
+     * Check if the article contains a field.
+     * @param tag field tag name
+     * @return true if field exists
+     */
+    public boolean has(String tag) {
+        return fields.containsKey(tag);
+    }
+
+    /**
+     * Helper methods to get different data types from the article.
+     */
+    public int getInteger(String tag) {
+        String value = fields.get(tag);
+
+        if (value != null) {
+            try {
+                return Integer.parseInt(value);
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        } else {
+            return 0;
+        }
+    }
+
+    public double getDouble(String tag) {
+        String value = fields.get(tag);
+
+        if (value != null) {
+            try {
+                return NUMBER_FORMAT.get().parse(value).doubleValue();
+            } catch (ParseException e) {
+                return 0;
+            }
+        } else {
+            return 0;
+        }
+    }
+
+    public String getString(String tag) {
+        String value = fields.get(tag);
+
+        if (value != null) {
+            return value.trim();
+        } else {
+            return "";
+        }
+    }
+
+    public boolean getBool(String tag) {
+        String value = fields.get(tag);
+
+        return value != null && value.equals("1");
+    }
+}
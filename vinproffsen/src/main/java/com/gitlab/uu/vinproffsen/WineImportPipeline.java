@@ -0,0 +1,357 @@
+package com.gitlab.uu.vinproffsen;
+
+import com.gitlab.uu.vinproffsen.exceptions.WineDatabaseException;
+import com.gitlab.uu.vinproffsen.items.storage.WineArticle;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Import pipeline with three stages:
+ *
+ * <ol>
+ *     <li>reader: the thread calling {@link #submit(ArticleRecord)} with raw articles from the XML file</li>
+ *     <li>workers: a pool of threads converting raw articles into wines (returns null to skip an article)</li>
+ *     <li>writer: a single thread passing converted wines on to the database in the same order as they were read</li>
+ * </ol>
+ *
+ * Stages are connected by bounded queues so a fast reader waits for the workers and the workers wait for the writer.
+ * At most twice the queue size of articles are in the pipeline at once, which also bounds the wines the writer holds
+ * back while waiting for an earlier article from a slow worker. With zero workers every article is converted and
+ * written directly in the reader thread.
+ *
+ * If a worker or the writer fails the pipeline stops: the reader is cancelled and {@link #finish()} throws the error,
+ * so the caller can roll back instead of committing an import with missing wines.
+ *
+ * @author Niklas Persson
+ * @version 2016-03-28
+ */
+public class WineImportPipeline {
+    private final static Logger LOG = Logger.getLogger(WineImportPipeline.class.getName());
+
+    private static final Task END = new Task(-1, null);
+
+    private final Function<ArticleRecord, WineArticle> converter;
+    private final Writer writer;
+    private final int workers;
+
+    private final BlockingQueue<Task> articles;
+    private final BlockingQueue<Task> wines;
+    private final Semaphore inFlight;
+    private final List<Future<?>> futures = new ArrayList<>();
+    private ExecutorService executor;
+
+    // First error that stopped the pipeline
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    // Statistics
+    private final LongAdder convertTime = new LongAdder();
+    private final LongAdder writeTime = new LongAdder();
+    private final AtomicInteger written = new AtomicInteger();
+    private final AtomicInteger skipped = new AtomicInteger();
+    private long blockedTime;
+    private long startTime;
+    private long readEndTime;
+    private long endTime;
+
+    private long sequence;
+
+    /**
+     * Create an import pipeline.
+     * @param workers number of worker threads, 0 runs all stages in the reader thread
+     * @param queueSize capacity of each queue between the stages
+     * @param converter converts a raw article to a wine, or null if the article should be skipped
+     * @param writer receives converted wines
+     */
+    public WineImportPipeline(int workers, int queueSize, Function<ArticleRecord, WineArticle> converter, Writer writer) {
+        this.workers = Math.max(0, workers);
+        this.converter = converter;
+        this.writer = writer;
+
+        articles = new ArrayBlockingQueue<>(Math.max(1, queueSize));
+        wines = new ArrayBlockingQueue<>(Math.max(1, queueSize));
+        inFlight = new Semaphore(2 * Math.max(1, queueSize));
+    }
+
+    /**
+     * Start worker and writer threads.
+     */
+    public void start() {
+        startTime = System.nanoTime();
+
+        if (workers == 0) return;
+
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(workers + 1, runnable -> {
+            Thread thread = new Thread(runnable, "wine-import-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        for (int i = 0; i < workers; i++)
+            futures.add(executor.submit(this::work));
+
+        futures.add(executor.submit(this::write));
+    }
+
+    /**
+     * Reader stage: pass a raw article to the workers. Blocks while the workers are busy.
+     * @param article raw article
+     * @throws CancellationException if the pipeline has failed, {@link #finish()} throws the cause
+     */
+    public void submit(ArticleRecord article) {
+        Task task = new Task(sequence++, article);
+
+        if (workers == 0) {
+            convert(task);
+            try {
+                accept(task);
+            } catch (WineDatabaseException e) {
+                fail(e);
+                throw new CancellationException("Import pipeline failed.");
+            }
+            return;
+        }
+
+        long start = System.nanoTime();
+        try {
+            if (!acquire() || !put(articles, task))
+                throw new CancellationException("Import pipeline failed.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Import was interrupted.");
+        } finally {
+            blockedTime += System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * Signal that all articles have been read and wait for every wine to be written.
+     * @throws InterruptedException
+     * @throws WineDatabaseException if a wine couldn't be written, the wines written so far should be rolled back
+     */
+    public void finish() throws InterruptedException, WineDatabaseException {
+        readEndTime = System.nanoTime();
+
+        if (workers > 0) {
+            try {
+                for (int i = 0; i < workers; i++) {
+                    if (!put(articles, END))
+                        break;
+                }
+
+                for (Future<?> future : futures) {
+                    try {
+                        future.get();
+                    } catch (ExecutionException e) {
+                        fail(e.getCause());
+                    }
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+
+        endTime = System.nanoTime();
+
+        Throwable cause = failure.get();
+        if (cause == null)
+            return;
+
+        if (cause instanceof WineDatabaseException)
+            throw (WineDatabaseException) cause;
+
+        LOG.log(Level.SEVERE, "Import pipeline failed.", cause);
+
+        throw new WineDatabaseException("Import pipeline failed: " + cause);
+    }
+
+    /**
+     * Get number of wines passed on to the writer.
+     * @return number of written wines
+     */
+    public int getWritten() {
+        return written.get();
+    }
+
+    /**
+     * Get number of articles that were skipped by the converter.
+     * @return number of skipped articles
+     */
+    public int getSkipped() {
+        return skipped.get();
+    }
+
+    /**
+     * Worker stage: convert articles until the end of the input.
+     */
+    private void work() {
+        try {
+            Task task;
+            while ((task = articles.take()) != END) {
+                convert(task);
+
+                if (!put(wines, task))
+                    return;
+            }
+
+            put(wines, END);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Throwable e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Writer stage: write converted wines in the same order as they were read until every worker has finished.
+     */
+    private void write() {
+        Map<Long, Task> pending = new HashMap<>();
+        long next = 0;
+        int finishedWorkers = 0;
+
+        try {
+            while (finishedWorkers < workers) {
+                Task task = wines.poll(100, TimeUnit.MILLISECONDS);
+
+                if (task == null) {
+                    if (failure.get() != null)
+                        return;
+                    continue;
+                }
+
+                if (task == END) {
+                    finishedWorkers++;
+                    continue;
+                }
+
+                pending.put(task.sequence, task);
+
+                while ((task = pending.remove(next)) != null) {
+                    accept(task);
+                    inFlight.release();
+                    next++;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Throwable e) {
+            fail(e);
+            return;
+        }
+
+        if (!pending.isEmpty())
+            fail(new IllegalStateException("Import pipeline finished with " + pending.size() + " unwritten wines."));
+    }
+
+    private void convert(Task task) {
+        long start = System.nanoTime();
+        try {
+            task.wine = converter.apply(task.article);
+        } catch (RuntimeException e) {
+            LOG.log(Level.WARNING, "Unable to convert article " + task.sequence, e);
+        } finally {
+            convertTime.add(System.nanoTime() - start);
+        }
+    }
+
+    private void accept(Task task) throws WineDatabaseException {
+        if (task.wine == null) {
+            skipped.incrementAndGet();
+            return;
+        }
+
+        long start = System.nanoTime();
+        try {
+            writer.write(task.wine);
+            written.incrementAndGet();
+        } finally {
+            writeTime.add(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Put a task on a queue, waiting while the queue is full.
+     * @return false if the pipeline failed while waiting
+     */
+    private boolean put(BlockingQueue<Task> queue, Task task) throws InterruptedException {
+        while (failure.get() == null) {
+            if (queue.offer(task, 100, TimeUnit.MILLISECONDS))
+                return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Wait for room for one more article in the pipeline.
+     * @return false if the pipeline failed while waiting
+     */
+    private boolean acquire() throws InterruptedException {
+        while (failure.get() == null) {
+            if (inFlight.tryAcquire(100, TimeUnit.MILLISECONDS))
+                return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Stop the pipeline. Only the first error is kept.
+     */
+    private void fail(Throwable cause) {
+        failure.compareAndSet(null, cause);
+    }
+
+    /**
+     * Get throughput and time spent in each stage. Convert time is the sum over all workers.
+     * @return statistics as text
+     */
+    public String getStatistics() {
+        double total = (endTime - startTime) / 1000000d;
+        double read = (readEndTime - startTime) / 1000000d;
+        double throughput = total > 0 ? sequence / (total / 1000d) : 0;
+
+        return String.format("Processed %d articles in %.1f ms (%.0f articles/s) using %s. " +
+                             "Read %.1f ms (waited %.1f ms), convert %.1f ms, write %.1f ms.",
+                             sequence, total, throughput, Utility.pluralize(workers, "worker", "workers"),
+                             read, blockedTime / 1000000d, convertTime.sum() / 1000000d, writeTime.sum() / 1000000d);
+    }
+
+    /**
+     * Receives converted wines in the writer stage.
+     */
+    @FunctionalInterface
+    public interface Writer {
+        /**
+         * Write a wine.
+         * @param wine wine
+         * @throws WineDatabaseException stops the pipeline
+         */
+        void write(WineArticle wine) throws WineDatabaseException;
+    }
+
+    /**
+     * An article on its way through the pipeline.
+     */
+    private static class Task {
+        final long sequence;
+        final ArticleRecord article;
+        WineArticle wine;
+
+        Task(long sequence, ArticleRecord article) {
+            this.sequence = sequence;
+            this.article = article;
+        }
+    }
+}
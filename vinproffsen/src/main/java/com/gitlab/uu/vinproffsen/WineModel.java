@@ -2,13 +2,27 @@ package com.gitlab.uu.vinproffsen;
 
 import com.gitlab.uu.mvp.Application;
 import com.gitlab.uu.mvp.Model;
+import com.gitlab.uu.vinproffsen.db.H2FullTextSearch;
 import com.gitlab.uu.vinproffsen.db.H2WineDatabase;
+import com.gitlab.uu.vinproffsen.db.WineBulkInsert;
+import com.gitlab.uu.vinproffsen.db.WineFacets;
+import com.gitlab.uu.vinproffsen.db.WineFacets.Facet;
 import com.gitlab.uu.vinproffsen.db.H2WineFileDatabase;
 import com.gitlab.uu.vinproffsen.db.H2WineMemoryDatabase;
+import com.gitlab.uu.vinproffsen.db.RowCursor;
+import com.gitlab.uu.vinproffsen.db.SearchCriteria;
+import com.gitlab.uu.vinproffsen.db.WineIndex;
+import com.gitlab.uu.vinproffsen.db.WineTextIndex;
 import com.gitlab.uu.vinproffsen.db.WineResult;
+import com.gitlab.uu.vinproffsen.db.WineResultCache;
+import com.gitlab.uu.vinproffsen.db.WineSampler;
+import com.gitlab.uu.vinproffsen.db.WineSearchBackend;
+import com.gitlab.uu.vinproffsen.db.WineStatistics;
+import com.gitlab.uu.vinproffsen.db.WineSync;
 import com.gitlab.uu.vinproffsen.exceptions.WineDatabaseException;
 import com.gitlab.uu.vinproffsen.items.Beverage;
 import com.gitlab.uu.vinproffsen.items.ItemFactory;
+import com.gitlab.uu.vinproffsen.items.WineDetailBatch;
 import com.gitlab.uu.vinproffsen.items.Wine;
 import com.gitlab.uu.vinproffsen.items.storage.*;
 import com.gitlab.uu.vinproffsen.ui.table.WineTable;
@@ -16,14 +30,26 @@ import com.gitlab.uu.vinproffsen.ui.table.WineTableColumn;
 import com.gitlab.uu.vinproffsen.ui.views.WineTableView;
 import org.jooq.Condition;
 import org.jooq.Field;
+import org.jooq.Query;
 import org.jooq.SelectQuery;
 
-import java.sql.ResultSet;
-import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
 import java.util.logging.Logger;
 
+import static org.jooq.impl.DSL.count;
 import static org.jooq.impl.DSL.field;
 import static org.jooq.impl.DSL.table;
 
@@ -31,13 +57,85 @@ import static org.jooq.impl.DSL.table;
  * Wine model provides an easier interface to the H2 database.
  *
  * @author Niklas Persson
- * @version 2016-03-14
+ * @version 2016-03-30
  */
 public class WineModel extends Model {
     private final static Logger LOG = Logger.getLogger(WineModel.class.getName());
 
+    private static final String IMPORT_SOURCE_KEY = "import.source";
+
+    // Text search backends
+    private static final String SEARCH_TRIGRAM = "trigram";
+    private static final String SEARCH_FULLTEXT = "fulltext";
+
+    private static final int COUNT_CACHE_SIZE = 64;
+    private static final int FACET_CACHE_SIZE = 16;
+
+    // Most text search matches listed by id in a query, more are matched by the database
+    private static final int MAX_ID_LIST = 256;
+
     private final H2WineDatabase db;
-    private boolean loaded;
+    private volatile boolean loaded;
+
+    // In-memory search index, null while it is being built or if disabled
+    private volatile WineIndex index;
+    private int indexVersion;
+
+    // Builds the search index, one build at a time
+    private final ExecutorService indexExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "wine-index");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Text search backend, null if the text search uses LIKE queries
+    private final String searchBackendName;
+    private volatile WineSearchBackend searchBackend;
+    private int searchBackendVersion;
+
+    // Runs the table searches
+    private final WineSearchScheduler searchScheduler;
+
+    // Search result pages by search criteria, cleared when the wines change
+    private final WineResultCache resultCache;
+
+    // Total number of wines matching each search, by count query, cleared when the wines change. The version is
+    // incremented on every clear, guarded by counts, so a count read before the wines changed is not kept.
+    private int countsVersion;
+    private final Map<String, Integer> counts = new LinkedHashMap<String, Integer>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+            return size() > COUNT_CACHE_SIZE;
+        }
+    };
+
+    // Ids of all wines for the random wine, read when needed and cleared when the wines change
+    private volatile WineSampler sampler;
+    private final AtomicInteger samplerVersion = new AtomicInteger();
+    private final Random random = new Random();
+
+    // Filter values with counts by search filters, cleared when the wines change. Versioned like the counts.
+    private int facetsVersion;
+    private final Map<SearchCriteria, WineFacets> facets = new LinkedHashMap<SearchCriteria, WineFacets>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<SearchCriteria, WineFacets> eldest) {
+            return size() > FACET_CACHE_SIZE;
+        }
+    };
+
+    // Number of searches from the view, filter counts are not sent if the search changed while counting
+    private final AtomicLong viewSearches = new AtomicLong();
+
+    // Reads for the view that shouldn't run in the event dispatch thread, one at a time: filter value counts and wine
+    // details
+    private final ExecutorService viewExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "wine-view");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // View search the filter values are being counted for, or -1
+    private final AtomicLong countingSearch = new AtomicLong(-1);
 
     public WineModel(Application application, boolean memoryDatabase) throws WineDatabaseException {
         super(application);
@@ -51,8 +149,19 @@ public class WineModel extends Model {
             db = new H2WineFileDatabase(settings.getString("db.file"));
         }
 
+        searchBackendName = settings.getString("db.search", "like");
+        resultCache = new WineResultCache(settings.getInteger("db.resultCache", 100),
+                                          settings.getInteger("db.resultCacheWines", 5000));
+
+        db.setPoolSize(settings.getInteger("db.poolSize", 8));
+        db.setLeakDetection(settings.getBoolean("app.debug"));
         db.connect();
-        db.createTables(false);
+        db.setStatementCacheSize(settings.getInteger("db.statementCache", 32));
+        searchScheduler = new WineSearchScheduler(db, settings.getInteger("db.searchDelay", 150));
+        db.createTables(false, SEARCH_FULLTEXT.equals(searchBackendName));
+
+        if (SEARCH_FULLTEXT.equals(searchBackendName))
+            searchBackend = new H2FullTextSearch(db);
 
         listen("wine:load", (o) -> load());
     }
@@ -70,16 +179,19 @@ public class WineModel extends Model {
      */
     public void finished() {
         listen("wine:db:search", tableView -> searchFromView((WineTableView) tableView));
+        listen("wine:db:facets:count", tableView -> countFacetsFromView((WineTableView) tableView));
 
         send("wine:update:charts");
         send("wine:update:random");
         send("wine:progress", 100, 100);
 
         loaded = true;
-    }
 
-    public ResultSet execute(String query) throws WineDatabaseException {
-        return db.execute(query);
+        // count the filter values once so the combo boxes can be filled from the cache
+        getFacets();
+
+        buildIndex();
+        buildTextIndex();
     }
 
     /**
@@ -87,15 +199,12 @@ public class WineModel extends Model {
      * @return number of wines
      */
     public int getWineCount() {
-        String query = db.getDSL().selectCount()
-                                  .from("ITEMS").toString();
+        Query query = db.getDSL().selectCount()
+                                 .from("ITEMS");
 
         try {
-            ResultSet result = db.execute(query);
-
-            if (result.next())
-                return result.getInt(1);
-        } catch (SQLException | WineDatabaseException e) {
+            return db.query(query, result -> result.next() ? result.getInt(1) : 0);
+        } catch (WineDatabaseException e) {
             LOG.warning(e.getMessage());
         }
 
@@ -108,19 +217,64 @@ public class WineModel extends Model {
      * @return wine
      */
     public WineResult getWine(Integer id) {
-        String query = db.getDSL().select().from("ITEMS").where("ID = ?", id).limit(1).toString();
+        Query query = db.getDSL().select().from("ITEMS").where("ID = ?", id).limit(1);
 
         return getWine(query, WineTableColumn.Id, true);
     }
 
     /**
-     * Get a random wine.
-     * @return random wine
+     * Get a random wine. The wine is drawn from a cached array of all wine ids and read with one primary key lookup.
+     * While wines are still being loaded the ids change all the time, so a random id between the lowest and highest id
+     * is picked instead and the first wine from that id is read.
+     * @return random wine, the wine is null if there are no wines
      */
     public WineResult getRandomWine() {
-        String query = "SELECT * FROM ITEMS ORDER BY RAND() LIMIT 1";
+        try {
+            if (!loaded) {
+                int[] range = db.query("SELECT MIN(ID), MAX(ID) FROM ITEMS", Collections.emptyList(),
+                                       result -> result.next() && result.getObject(1) != null
+                                                 ? new int[] { result.getInt(1), result.getInt(2) } : null);
 
-        return getWine(query, WineTableColumn.Id, true);
+                if (range != null) {
+                    int probe = range[0] + random.nextInt(range[1] - range[0] + 1);
+                    Query query = db.getDSL().select().from("ITEMS").where(field("ID").greaterOrEqual(probe))
+                                             .orderBy(field("ID").asc()).limit(1);
+
+                    return getWine(query, WineTableColumn.Id, true);
+                }
+            } else {
+                Integer id = getSampler().pick(random);
+
+                if (id != null)
+                    return getWine(id);
+            }
+        } catch (WineDatabaseException e) {
+            LOG.warning(e.getMessage());
+        }
+
+        return new WineResult((Wine) null, WineTableColumn.Id, true, 0);
+    }
+
+    /**
+     * Get the sampler of the current wines, read again after the wines change.
+     * @return sampler
+     * @throws WineDatabaseException
+     */
+    private WineSampler getSampler() throws WineDatabaseException {
+        WineSampler current = sampler;
+        if (current != null)
+            return current;
+
+        int version = samplerVersion.get();
+        current = db.query(WineSampler.QUERY, Collections.emptyList(), WineSampler::new);
+
+        // don't keep ids read before the wines changed
+        synchronized (samplerVersion) {
+            if (sampler == null && samplerVersion.get() == version)
+                sampler = current;
+        }
+
+        return current;
     }
 
     /**
@@ -133,11 +287,12 @@ public class WineModel extends Model {
 
     public WineResult getWines(WineTableColumn sortBy, boolean ascending) {
         SelectQuery query = db.getSelectQuery();
+        query.addSelect(fields(ItemFactory.TABLE_COLUMNS));
         query.addFrom(table("ITEMS"));
 
         updateSortBy(query, sortBy, ascending);
 
-        return getWines(query.toString(), sortBy, ascending, 0, 0);
+        return getWines(query, sortBy, ascending, 0, 0);
     }
 
     /**
@@ -161,15 +316,49 @@ public class WineModel extends Model {
         int winesPerPage = table.getWinesPerPage();
         WineTableColumn sortBy = table.getSortedBy();
         boolean ascending = table.isAscending();
+        WineResult previous = table.getResult();
 
         int offset = (page - 1) * winesPerPage;
 
-        new Thread(() -> {
-            WineResult result = searchWines(query, type, minPrice, maxPrice, minYear, maxYear, details, seller, beverage,
-                                            sortBy, ascending, offset, winesPerPage);
+        viewSearches.incrementAndGet();
 
-            send("wine:db:result", result);
-        }).start();
+        searchScheduler.submit(() -> searchWines(query, type, minPrice, maxPrice, minYear, maxYear, details, seller, beverage,
+                                                 sortBy, ascending, offset, winesPerPage, previous),
+                               result -> send("wine:db:result", result));
+    }
+
+    /**
+     * Called when the view opens a filter list. The wines of each filter value are counted for the current search in
+     * the background and sent to the view, unless the view has searched again by then. Nothing is started if the
+     * current search is already being counted.
+     * @param view wine table view tab
+     */
+    private void countFacetsFromView(WineTableView view) {
+        String query = view.getSearchText();
+        String type = view.getSelectedType().id;
+        Double minPrice = view.getMinPrice();
+        Double maxPrice = view.getMaxPrice();
+        Integer minYear = view.getMinYear();
+        Integer maxYear = view.getMaxYear();
+        ItemDetails details = new ItemDetails(view.getEcological(), view.getKosher(), null, null);
+        ItemSeller seller = new ItemSeller(null, view.getSelectedArea().id, view.getSelectedCountry().id, null, null, null, null);
+
+        long search = viewSearches.get();
+        if (countingSearch.getAndSet(search) == search) return;
+
+        viewExecutor.execute(() -> {
+            try {
+                // the view searched again while waiting for an older count
+                if (viewSearches.get() != search) return;
+
+                WineFacets counts = getFacets(query, type, minPrice, maxPrice, minYear, maxYear, details, seller);
+
+                if (viewSearches.get() == search)
+                    send("wine:db:facets", counts);
+            } finally {
+                countingSearch.compareAndSet(search, -1);
+            }
+        });
     }
 
     /**
@@ -190,6 +379,32 @@ public class WineModel extends Model {
     public WineResult searchWines(String searchQuery, String type, Double minPrice, Double maxPrice, Integer minYear, Integer maxYear,
                                   ItemDetails details, ItemSeller seller, Beverage beverage, WineTableColumn sortBy, boolean ascending,
                                   int offset, int winesPerPage) {
+        return searchWines(searchQuery, type, minPrice, maxPrice, minYear, maxYear, details, seller, beverage, sortBy, ascending,
+                           offset, winesPerPage, null);
+    }
+
+    /**
+     * Search the database for all wines matching the provided parameters. Set to null to skip matching a certain param.
+     *
+     * If the previous result is a page of the same search and the requested page is next to it or the last page, the page
+     * is found by seeking from the first or last wine of the previous page instead of skipping rows with an offset.
+     * @param searchQuery text query that matches wines by name, type, country and area
+     * @param type wine type
+     * @param minPrice minimum price
+     * @param maxPrice maximum price
+     * @param minYear minimum year
+     * @param maxYear maximum year
+     * @param details item details
+     * @param seller item seller
+     * @param beverage beverage details
+     * @param sortBy column to sort by
+     * @param ascending ascending or descending order
+     * @param previous the page shown before this search with the same parameters, or null
+     * @return all wines matching the provided parameters
+     */
+    public WineResult searchWines(String searchQuery, String type, Double minPrice, Double maxPrice, Integer minYear, Integer maxYear,
+                                  ItemDetails details, ItemSeller seller, Beverage beverage, WineTableColumn sortBy, boolean ascending,
+                                  int offset, int winesPerPage, WineResult previous) {
         if (searchQuery == null)
             searchQuery = "";
 
@@ -211,51 +426,113 @@ public class WineModel extends Model {
             }
         }
 
-        SelectQuery query = db.getSelectQuery();
-        query.addFrom(table("ITEMS"));
+        long startTime = System.nanoTime();
 
-        // Wine details
-        if (details != null) {
-            if (details.ecological)
-                query.addConditions(field("ecological").eq(1));
-            if (details.kosher)
-                query.addConditions(field("kosher").eq(1));
-        }
+        String area = (seller != null) ? seller.area : null;
+        String country = (seller != null) ? seller.country : null;
+        SearchCriteria criteria = new SearchCriteria(searchQuery, type, minPrice, maxPrice, minYear, maxYear,
+                                                     details != null && details.ecological, details != null && details.kosher,
+                                                     area, country, sortBy, ascending,
+                                                     (winesPerPage > 0) ? 1 + offset / winesPerPage : 1, winesPerPage);
 
-        // Search by text query
-        handleSearchQuery(query, searchQuery);
+        long version = resultCache.getVersion();
+        WineResult result = resultCache.get(criteria);
+        if (result != null) {
+            double executionTime = (double) (System.nanoTime() - startTime) / 1000000d;
 
-        // Search by selected country, area, and/or type
-        if (type != null) {
-            query.addConditions(field("type_lower").contains(type.toLowerCase()));
+            LOG.fine("Found cached result for " + criteria);
+
+            send("wine:update:random");
+            sendSearchStatus(executionTime);
+
+            return result;
         }
 
-        if (seller != null) {
-            if (seller.area != null)
-                query.addConditions(field("area_lower").eq(seller.area.toLowerCase()));
-            if (seller.country != null)
-                query.addConditions(field("country_lower").eq(seller.country.toLowerCase()));
+        result = queryWines(searchQuery, type, minPrice, maxPrice, minYear, maxYear, details, seller, sortBy, ascending,
+                            offset, winesPerPage, previous);
+
+        // wines may still be added while loading, and a replaced search may have been cancelled half way
+        if (loaded && !searchScheduler.isSuperseded())
+            resultCache.put(criteria, result, version);
+
+        return result;
+    }
+
+    /**
+     * Search the database or the search index for wines, see searchWines.
+     */
+    private WineResult queryWines(String searchQuery, String type, Double minPrice, Double maxPrice, Integer minYear, Integer maxYear,
+                                  ItemDetails details, ItemSeller seller, WineTableColumn sortBy, boolean ascending,
+                                  int offset, int winesPerPage, WineResult previous) {
+        String[] keywords = searchQuery.isEmpty() ? null : searchQuery.toLowerCase().split(" ");
+
+        WineIndex index = this.index;
+        if (index != null && winesPerPage > 0) {
+            long startTime = System.nanoTime();
+
+            BitSet textMatches = searchText(keywords);
+            int[] ids = index.search(textMatches, (textMatches == null) ? keywords : null, (type != null) ? type.toLowerCase() : null,
+                                     (minPrice != null) ? minPrice * 100d : null, (maxPrice != null) ? maxPrice * 100d : null,
+                                     minYear, maxYear, details != null && details.ecological, details != null && details.kosher,
+                                     (seller != null && seller.area != null) ? seller.area.toLowerCase() : null,
+                                     (seller != null && seller.country != null) ? seller.country.toLowerCase() : null,
+                                     sortBy, ascending);
+
+            return getWines(ids, sortBy, ascending, offset, winesPerPage, startTime);
         }
 
-        // Filter by year
-        filterBetweenValues(query, "year", minYear, maxYear);
+        String area = (seller != null) ? seller.area : null;
+        String country = (seller != null) ? seller.country : null;
+        List<Condition> conditions = getConditions(searchQuery, type, minPrice, maxPrice, minYear, maxYear, details, area, country);
 
-        // Filter by price
-        minPrice = (minPrice != null) ? minPrice * 100d : null;
-        maxPrice = (maxPrice != null) ? maxPrice * 100d : null;
-        filterBetweenValues(query, "price", minPrice, maxPrice);
+        Condition[] where = conditions.toArray(new Condition[conditions.size()]);
+
+        SelectQuery query = db.getSelectQuery();
+        query.addSelect(fields(ItemFactory.TABLE_COLUMNS));
+        query.addFrom(table("ITEMS"));
+        query.addConditions(where);
+
+        Query countQuery = db.getDSL().selectCount().from("ITEMS").where(where);
+
+        int page = 1;
+        int totalCount = -1;
+        boolean reversed = false;
 
         if (winesPerPage > 0) {
-            // add limit and offset
-            query.addLimit(offset, winesPerPage);
+            page = 1 + offset / winesPerPage;
+
+            Field sortCol = field(getSortColumn(sortBy));
+            boolean samePages = previous != null && previous.sortedBy == sortBy && previous.ascending == ascending
+                                && previous.winesPerPage == winesPerPage && previous.totalPages > 1;
+
+            if (samePages && previous.lastId != null && page == previous.currentPage + 1) {
+                // next page: the wines after the last wine on the previous page
+                query.addConditions(seekCondition(sortCol, previous.lastKey, previous.lastId, ascending));
+                query.addLimit(winesPerPage);
+                totalCount = previous.totalCount;
+            } else if (samePages && previous.firstId != null && page == previous.currentPage - 1) {
+                // previous page: the wines before the first wine on the previous page, read backwards
+                query.addConditions(seekCondition(sortCol, previous.firstKey, previous.firstId, !ascending));
+                query.addLimit(winesPerPage);
+                totalCount = previous.totalCount;
+                reversed = true;
+            } else if (samePages && page == previous.totalPages && page != previous.currentPage) {
+                // last page: read backwards from the end
+                query.addLimit(Math.max(1, previous.totalCount - (page - 1) * winesPerPage));
+                totalCount = previous.totalCount;
+                reversed = true;
+            } else {
+                // add limit and offset
+                query.addLimit(offset, winesPerPage);
+            }
         }
 
         // Sorting
-        updateSortBy(query, sortBy, ascending);
+        updateSortBy(query, sortBy, ascending != reversed);
 
         LOG.finer(query.toString());
 
-        return getWines(query.toString(), sortBy, ascending, offset, winesPerPage);
+        return getWines(query, countQuery, sortBy, ascending, page, winesPerPage, totalCount, reversed);
     }
 
     /**
@@ -264,42 +541,132 @@ public class WineModel extends Model {
      */
     public void remove(List<Wine> wines) {
         db.remove(wines);
+        clearCaches();
+
+        synchronized (this) {
+            if (searchBackend != null) {
+                for (Wine wine : wines)
+                    searchBackend.remove(wine.getId());
+            } else {
+                searchBackendVersion++;
+            }
+        }
+
+        List<Integer> ids = new ArrayList<>(wines.size());
+        for (Wine wine : wines)
+            ids.add(wine.getId());
+
+        updateIndex(index -> index.without(ids));
     }
 
     /**
-     * Get a list of countries.
-     * @return list of countries as strings
+     * Get wine counts for the start screen charts. Counted with one grouped query the first time and kept up to date
+     * as wines are added and removed.
+     * @return wine statistics
      */
-    public List<String> getCountries() {
-        String query = db.getDSL().selectDistinct(field("COUNTRY")).from("ITEMS").orderBy(field("COUNTRY").asc()).toString();
+    public WineStatistics getStatistics() {
+        try {
+            return db.getStatistics();
+        } catch (WineDatabaseException e) {
+            LOG.warning(e.getMessage());
+        }
+
+        return new WineStatistics();
+    }
 
-        List<String> countries = new ArrayList<>();
+    /**
+     * Get all countries, areas and types with the number of wines of each.
+     * @return facets of all wines
+     */
+    public WineFacets getFacets() {
+        return getFacets(null, null, null, null, null, null, null, null);
+    }
+
+    /**
+     * Get the countries, areas and types with the number of wines matching a search, see {@link WineFacets}. Counted
+     * with one grouped query per facet and cached until the wines change, so only count them when they are shown.
+     * @param searchQuery text query that matches wines by name, type, country and area
+     * @param type wine type
+     * @param minPrice minimum price
+     * @param maxPrice maximum price
+     * @param minYear minimum year
+     * @param maxYear maximum year
+     * @param details item details
+     * @param seller item seller
+     * @return facets of the search
+     */
+    public WineFacets getFacets(String searchQuery, String type, Double minPrice, Double maxPrice, Integer minYear,
+                                Integer maxYear, ItemDetails details, ItemSeller seller) {
+        if (searchQuery == null)
+            searchQuery = "";
+
+        String area = (seller != null) ? seller.area : null;
+        String country = (seller != null) ? seller.country : null;
+        SearchCriteria criteria = new SearchCriteria(searchQuery, type, minPrice, maxPrice, minYear, maxYear,
+                                                     details != null && details.ecological, details != null && details.kosher,
+                                                     area, country, null, true, 0, 0);
+
+        int version;
+        synchronized (facets) {
+            WineFacets cached = facets.get(criteria);
+            if (cached != null)
+                return cached;
+
+            version = facetsVersion;
+        }
+
+        WineFacets result = new WineFacets();
 
         try {
-            ResultSet result = db.execute(query);
-            while (result.next())
-                countries.add(result.getString("COUNTRY"));
-        } catch (SQLException | WineDatabaseException ignored) {}
+            // each facet is counted without its own filter
+            countFacet(result, Facet.Country, getConditions(searchQuery, type, minPrice, maxPrice, minYear, maxYear, details, area, null));
+            countFacet(result, Facet.Area, getConditions(searchQuery, type, minPrice, maxPrice, minYear, maxYear, details, null, country));
+            countFacet(result, Facet.Type, getConditions(searchQuery, null, minPrice, maxPrice, minYear, maxYear, details, area, country));
+        } catch (WineDatabaseException e) {
+            LOG.warning(e.getMessage());
 
-        return countries;
+            return result;
+        }
+
+        // counts may change while wines are being imported
+        if (loaded && !searchScheduler.isSuperseded()) {
+            synchronized (facets) {
+                if (version == facetsVersion)
+                    facets.put(criteria, result);
+            }
+        }
+
+        return result;
     }
 
     /**
-     * Get a list of areas.
-     * @return list of areas as strings
+     * Count the wines of each value of a facet.
+     * @param facets receives the counts
+     * @param facet facet
+     * @param conditions search conditions
+     * @throws WineDatabaseException
      */
-    public List<String> getAreas() {
-        String query = db.getDSL().selectDistinct(field("AREA")).from("ITEMS").orderBy(field("AREA").asc()).toString();
+    private void countFacet(WineFacets facets, Facet facet, List<Condition> conditions) throws WineDatabaseException {
+        Field column = field(facet.column);
+        Query query = db.getDSL().select(column, count()).from("ITEMS").where(conditions).groupBy(column);
 
-        List<String> areas = new ArrayList<>();
+        db.forEach(query, row -> facets.add(facet, row.getString(1), row.getInt(2)));
+    }
 
-        try {
-            ResultSet result = db.execute(query);
-            while (result.next())
-                areas.add(result.getString("AREA"));
-        } catch (SQLException | WineDatabaseException ignored) {}
+    /**
+     * Get a list of countries.
+     * @return list of countries as strings
+     */
+    public List<String> getCountries() {
+        return getFacets().getValues(Facet.Country);
+    }
 
-        return areas;
+    /**
+     * Get a list of areas.
+     * @return list of areas as strings
+     */
+    public List<String> getAreas() {
+        return getFacets().getValues(Facet.Area);
     }
 
     /**
@@ -307,22 +674,7 @@ public class WineModel extends Model {
      * @return list of wine types as strings
      */
     public List<String> getWineTypes() {
-        String query = db.getDSL().selectDistinct(field("TYPE")).from("ITEMS").toString();
-
-        List<String> types = new ArrayList<>();
-
-        try {
-            ResultSet result = db.execute(query);
-            while (result.next()) {
-                for (String type : result.getString("TYPE").split(",")) {
-                    type = type.trim();
-                    if (!types.contains(type))
-                        types.add(type);
-                }
-            }
-        } catch (SQLException | WineDatabaseException ignored) {}
-
-        return types;
+        return getFacets().getValues(Facet.Type);
     }
 
     /**
@@ -336,9 +688,22 @@ public class WineModel extends Model {
      */
     public WineResult addWine(ItemName name, ItemType type, ItemSeller seller, ItemDetails details, BeverageDetails bevDetails) {
         int id = db.addWine(name, type, seller, details, bevDetails);
+        clearCaches();
+
+        addToIndex(id);
 
         WineResult result = getWine(id);
 
+        synchronized (this) {
+            if (searchBackend != null && !result.wines.isEmpty()) {
+                Wine wine = result.wines.get(0);
+                searchBackend.add(id, lower(wine.getName()), lower(wine.getAlternativeName()), lower(wine.getType().text),
+                              lower(wine.getArea()), lower(wine.getCountry()), String.valueOf(wine.getYear()));
+            } else {
+                searchBackendVersion++;
+            }
+        }
+
         // notify consumers about the new wine
         send("wine:update:charts");
         send("wine:update:table");
@@ -347,27 +712,85 @@ public class WineModel extends Model {
         return result;
     }
 
+    /**
+     * Start a bulk insert of wines. Wines added to the bulk insert are not read back and no events are sent for each
+     * wine, use {@link #commitBulkInsert(WineBulkInsert)} when all wines have been added.
+     * @return bulk insert, close it when done
+     * @throws WineDatabaseException
+     */
+    public WineBulkInsert startBulkInsert() throws WineDatabaseException {
+        return db.startBulkInsert(WineSettings.getInstance().getInteger("db.batchSize", 500));
+    }
+
+    /**
+     * Commit a bulk insert and notify consumers once about all the new wines.
+     * @param insert bulk insert
+     * @param source name of the imported file
+     * @return number of added wines
+     * @throws WineDatabaseException
+     */
+    public int commitBulkInsert(WineBulkInsert insert, String source) throws WineDatabaseException {
+        int count = insert.commit();
+        clearCaches();
+        db.invalidateStatistics();
+
+        db.setMeta(IMPORT_SOURCE_KEY, source);
+
+        send("wine:bulk:added", count);
+
+        return count;
+    }
+
+    /**
+     * Start an incremental sync of the imported wines. The sync runs on its own connection so searches keep working
+     * while it runs, use {@link #commitSync(WineSync, String)} when all wines in the feed have been added.
+     * @return sync, close it when done
+     * @throws WineDatabaseException
+     */
+    public WineSync startSync() throws WineDatabaseException {
+        return db.startSync(WineSettings.getInstance().getInteger("db.batchSize", 500));
+    }
+
+    /**
+     * Commit a sync and notify consumers if any wines changed.
+     * @param sync sync
+     * @param source name of the imported file
+     * @throws WineDatabaseException
+     */
+    public void commitSync(WineSync sync, String source) throws WineDatabaseException {
+        int changed = sync.commit();
+        clearCaches();
+        db.invalidateStatistics();
+
+        db.setMeta(IMPORT_SOURCE_KEY, source);
+
+        send("wine:status:right", String.format("Sortimentet uppdaterat: %d nya, %d ändrade och %d borttagna viner.",
+                                                sync.getInserted(), sync.getUpdated(), sync.getDeleted()));
+
+        if (changed > 0) {
+            buildIndex();
+            buildTextIndex();
+
+            send("wine:update:charts");
+            send("wine:update:table");
+        }
+    }
+
     /**
      * Helper method that return a Wine object from an SQL query.
      * @param query database query
      * @return wine object
      */
-    private WineResult getWine(String query, WineTableColumn sortedBy, boolean ascending) {
+    private WineResult getWine(Query query, WineTableColumn sortedBy, boolean ascending) {
         long startTime = System.nanoTime();
 
-        Wine wine = null;
-        try {
-            ResultSet result = db.execute(query);
-            if (result.next())
-                wine = ItemFactory.createWine(result);
-        } catch (SQLException | WineDatabaseException e) {
-            LOG.warning(e.getMessage());
-        }
+        List<Wine> wines = fetchWines(query);
+        Wine wine = wines.isEmpty() ? null : wines.get(0);
 
         long endTime = System.nanoTime();
         double executionTime = (double) (endTime - startTime) / 1000000d;
 
-        send("wine:status:right", String.format("Sökningen tog %.1f millisekunder.", executionTime));
+        sendSearchStatus(executionTime);
 
         return new WineResult(wine, sortedBy, ascending, executionTime);
     }
@@ -377,41 +800,293 @@ public class WineModel extends Model {
      * @param query database query
      * @return wine object
      */
-    private WineResult getWines(String query, WineTableColumn sortedBy, boolean ascending, int offset, int winesPerPage) {
+    private WineResult getWines(Query query, WineTableColumn sortedBy, boolean ascending, int offset, int winesPerPage) {
+        int page = (winesPerPage > 0) ? 1 + offset / winesPerPage : 1;
+
+        return getWines(query, null, sortedBy, ascending, page, winesPerPage, -1, false);
+    }
+
+    /**
+     * Helper method that return a page of Wine objects from an SQL query.
+     * @param query database query
+     * @param countQuery query that counts all matching wines, or null
+     * @param page page number
+     * @param totalCount number of matching wines if already known, or -1
+     * @param reversed true if the query reads the page backwards
+     * @return wines on the page
+     */
+    private WineResult getWines(Query query, Query countQuery, WineTableColumn sortedBy, boolean ascending, int page,
+                                int winesPerPage, int totalCount, boolean reversed) {
         long startTime = System.nanoTime();
 
-        int count = 0;
+        List<Object> keys = new ArrayList<>();
+        List<Wine> wines = fetchWines(query, getSortColumn(sortedBy), keys);
+        int count = wines.size();
+
+        if (reversed) {
+            Collections.reverse(wines);
+            Collections.reverse(keys);
+        }
+
+        int totalPages = page;
+        if (winesPerPage > 0) {
+            // No need to look up wine count if the page isn't full, unless it is an empty page after the last one
+            if (totalCount < 0) {
+                if (countQuery != null && (count == winesPerPage || count == 0 && page > 1))
+                    totalCount = getCount(countQuery);
+                else
+                    totalCount = (page - 1) * winesPerPage + count;
+            }
+
+            totalPages = Math.max(1, (totalCount + winesPerPage - 1) / winesPerPage);
+        } else {
+            totalCount = count;
+        }
+
+        long endTime = System.nanoTime();
+        double executionTime = (double) (endTime - startTime) / 1000000d;
+
+        // Update random wine
+        send("wine:update:random");
+
+        // Update status bar
+        sendSearchStatus(executionTime);
+
+        if (wines.isEmpty())
+            return new WineResult(wines, sortedBy, ascending, executionTime, page, totalPages, winesPerPage, totalCount);
+
+        return new WineResult(wines, sortedBy, ascending, executionTime, page, totalPages, winesPerPage, totalCount,
+                              keys.get(0), wines.get(0).getId(), keys.get(count - 1), wines.get(count - 1).getId());
+    }
+
+    /**
+     * Get the number of wines matching a search. The count is only run once for each search until the wines change,
+     * paging through the result uses the cached count.
+     * @param query count query
+     * @return count
+     */
+    private int getCount(Query query) {
+        String key = query.getSQL() + " " + query.getBindValues();
+        int version;
+
+        synchronized (counts) {
+            Integer count = counts.get(key);
+            if (count != null)
+                return count;
+
+            version = countsVersion;
+        }
+
+        try {
+            int count = db.query(query, result -> result.next() ? result.getInt(1) : 0);
+
+            // counts may change while wines are being imported, keep the count only if no wine changed while counting
+            if (loaded) {
+                synchronized (counts) {
+                    if (version == countsVersion)
+                        counts.put(key, count);
+                }
+            }
+
+            return count;
+        } catch (WineDatabaseException e) {
+            LOG.warning(e.getMessage());
+        }
+
+        return 0;
+    }
+
+    /**
+     * Forget all cached results, counts, facets and random wine ids, called when wines are added or removed.
+     */
+    private void clearCaches() {
+        resultCache.clear();
+
+        synchronized (counts) {
+            counts.clear();
+            countsVersion++;
+        }
+
+        synchronized (facets) {
+            facets.clear();
+            facetsVersion++;
+        }
+
+        synchronized (samplerVersion) {
+            samplerVersion.incrementAndGet();
+            sampler = null;
+        }
+    }
+
+    /**
+     * Show how long a search took in the status bar.
+     * @param executionTime milliseconds
+     */
+    private void sendSearchStatus(double executionTime) {
+        send("wine:status:right", String.format("Sökningen tog %.1f millisekunder (cache: %d träffar, %d missar).",
+                                                executionTime, resultCache.getHits(), resultCache.getMisses()));
+    }
+
+    /**
+     * Run a query with all columns and create a wine from each row.
+     * @param query database query
+     * @return wines
+     */
+    private List<Wine> fetchWines(Query query) {
+        return fetchWines(query, false, null, null);
+    }
+
+    /**
+     * Run a query with the {@link ItemFactory#TABLE_COLUMNS} and create a wine from each row. The details of the wines
+     * are read in batches when they are first needed.
+     * @param query database query
+     * @param keyColumn column to read the sort key from, or null
+     * @param keys receives the sort key of each wine
+     * @return wines
+     */
+    private List<Wine> fetchWines(Query query, String keyColumn, List<Object> keys) {
+        return fetchWines(query, true, keyColumn, keys);
+    }
+
+    private List<Wine> fetchWines(Query query, boolean lazyDetails, String keyColumn, List<Object> keys) {
         List<Wine> wines = new ArrayList<>();
+        WineDetailBatch[] batch = new WineDetailBatch[1];
 
         try {
-            ResultSet result = db.execute(query);
-            while (result.next()) {
-                Wine wine = ItemFactory.createWine(result);
+            db.forEach(query, row -> {
+                Wine wine;
+                if (lazyDetails) {
+                    if (batch[0] == null || batch[0].isFull())
+                        batch[0] = new WineDetailBatch(this::loadDetails);
+
+                    wine = ItemFactory.createWine(row, batch[0]);
+                } else {
+                    wine = ItemFactory.createWine(row);
+                }
+
                 if (wine != null) {
                     wines.add(wine);
-                    count++;
+
+                    if (keyColumn != null)
+                        keys.add(row.getObject(keyColumn));
                 }
-            }
-        } catch (SQLException | WineDatabaseException e) {
+            });
+        } catch (WineDatabaseException e) {
             LOG.warning(e.getMessage());
         }
 
-        int page = 1;
-        int totalPages = (int) Math.ceil(count / WineSettings.getInstance().getInteger("db.winesPerPage"));
-        int totalCount = count;
-        if (winesPerPage > 0) {
-            page = 1 + offset / winesPerPage;
+        LOG.finer(db::getStatementCacheStatistics);
 
-            // No need to look up wine count if offset is at zero and we get less than winesPerPage wines
-            if (!(offset == 0 && count < winesPerPage)) {
-                String countQuery = query.toLowerCase().replace("select *", "select count(*)").replaceFirst("order by [^ ]+ (asc|desc)", "").replaceFirst(" offset [^ ]+", "");
-                totalCount = db.getCount(countQuery);
-                totalPages = 1 + totalCount / winesPerPage;
-            } else {
-                totalPages = 1;
-            }
+        if (db.isLeakDetection())
+            LOG.fine(db::getOpenStatementReport);
+
+        return wines;
+    }
+
+    /**
+     * Read the details of a wine in the background, for example before opening it, so the query doesn't run in the
+     * event dispatch thread.
+     * @param wine wine
+     * @param loaded receives true if the details were read, or false if the query failed
+     */
+    public void loadDetails(Wine wine, Consumer<Boolean> loaded) {
+        viewExecutor.execute(() -> loaded.accept(wine.loadDetails()));
+    }
+
+    /**
+     * Read the details of wines created from the table columns.
+     * @param batch batch to read the rows into
+     * @param ids wine ids
+     * @throws WineDatabaseException
+     */
+    private void loadDetails(WineDetailBatch batch, List<Integer> ids) throws WineDatabaseException {
+        Query query = db.getDSL().select(fields(ItemFactory.DETAIL_COLUMNS)).from("ITEMS").where(field("ID").in(ids));
+
+        db.forEach(query, batch::read);
+    }
+
+    /**
+     * Create fields from column names.
+     * @param columns column names
+     * @return fields
+     */
+    private static Field<?>[] fields(String[] columns) {
+        Field<?>[] fields = new Field<?>[columns.length];
+        for (int i = 0; i < columns.length; i++)
+            fields[i] = field(columns[i]);
+
+        return fields;
+    }
+
+    /**
+     * Helper method that return a page of Wine objects from a raw SQL query. The result is read through a cursor and
+     * only the wines on the page are created, the other rows are just counted.
+     * @param sql sql query
+     * @param offset offset of the page
+     * @param winesPerPage wines per page, 0 for all wines
+     * @return wines on the page
+     */
+    private WineResult getWines(String sql, WineTableColumn sortedBy, boolean ascending, int offset, int winesPerPage) {
+        long startTime = System.nanoTime();
+
+        List<Wine> wines = new ArrayList<>();
+        int end = (winesPerPage > 0) ? offset + winesPerPage : Integer.MAX_VALUE;
+        int[] rows = new int[1];
+
+        try (RowCursor<Wine> cursor = db.openCursor(sql, Collections.emptyList(), row -> {
+            int index = rows[0]++;
+            return (index >= offset && index < end) ? ItemFactory.createWine(row) : null;
+        })) {
+            cursor.forEachRemaining(wines::add);
+        } catch (WineDatabaseException | RowCursor.CursorException e) {
+            LOG.warning(e.getMessage());
         }
 
+        int totalCount = rows[0];
+        int page = (winesPerPage > 0) ? 1 + offset / winesPerPage : 1;
+        int totalPages = (winesPerPage > 0) ? Math.max(1, (totalCount + winesPerPage - 1) / winesPerPage) : 1;
+
+        long endTime = System.nanoTime();
+        double executionTime = (double) (endTime - startTime) / 1000000d;
+
+        send("wine:update:random");
+        sendSearchStatus(executionTime);
+
+        return new WineResult(wines, sortedBy, ascending, executionTime, page, totalPages, winesPerPage, totalCount);
+    }
+
+    /**
+     * Helper method that return a page of Wine objects from a sorted list of ids found in the search index.
+     * @param ids ids of all matching wines in sorted order
+     * @param offset offset of the page
+     * @param winesPerPage wines per page
+     * @param startTime when the search started
+     * @return wines on the page
+     */
+    private WineResult getWines(int[] ids, WineTableColumn sortedBy, boolean ascending, int offset, int winesPerPage, long startTime) {
+        List<Integer> pageIds = new ArrayList<>();
+        for (int i = offset; i < ids.length && i < offset + winesPerPage; i++)
+            pageIds.add(ids[i]);
+
+        Map<Integer, Wine> found = new HashMap<>();
+
+        if (!pageIds.isEmpty()) {
+            Query query = db.getDSL().select(fields(ItemFactory.TABLE_COLUMNS)).from("ITEMS").where(field("ID").in(pageIds));
+
+            for (Wine wine : fetchWines(query, null, null))
+                found.put(wine.getId(), wine);
+        }
+
+        List<Wine> wines = new ArrayList<>();
+        for (Integer id : pageIds) {
+            Wine wine = found.get(id);
+            if (wine != null)
+                wines.add(wine);
+        }
+
+        int page = 1 + offset / winesPerPage;
+        int totalPages = Math.max(1, (ids.length + winesPerPage - 1) / winesPerPage);
+
         long endTime = System.nanoTime();
         double executionTime = (double) (endTime - startTime) / 1000000d;
 
@@ -419,37 +1094,268 @@ public class WineModel extends Model {
         send("wine:update:random");
 
         // Update status bar
-        send("wine:status:right", String.format("Sökningen tog %.1f millisekunder.", executionTime));
+        sendSearchStatus(executionTime);
 
-        return new WineResult(wines, sortedBy, ascending, executionTime, page, totalPages, winesPerPage, totalCount);
+        return new WineResult(wines, sortedBy, ascending, executionTime, page, totalPages, winesPerPage, ids.length);
     }
 
     /**
-     * Apply conditions to SQL query to filter between two numbers.
-     * @param query select query
+     * Build a new search index in the background if enabled. Searches use the database until the index is built.
+     * Builds run one at a time, a build that is replaced by a newer one before it starts is skipped.
+     */
+    private void buildIndex() {
+        if (!WineSettings.getInstance().getBoolean("db.index")) return;
+
+        int version;
+        synchronized (this) {
+            version = ++indexVersion;
+            index = null;
+        }
+
+        indexExecutor.execute(() -> {
+            synchronized (this) {
+                if (version != indexVersion) return;
+            }
+
+            long startTime = System.nanoTime();
+
+            try {
+                WineIndex newIndex = db.query(WineIndex.QUERY, Collections.emptyList(), WineIndex::new);
+
+                synchronized (this) {
+                    // a newer build is queued if the wines changed while building
+                    if (version != indexVersion) return;
+
+                    index = newIndex;
+                }
+
+                LOG.fine(String.format("Built search index of %d wines in %.1f ms.", newIndex.getSize(),
+                                       (System.nanoTime() - startTime) / 1000000d));
+            } catch (WineDatabaseException e) {
+                LOG.warning("Unable to build search index: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Apply a change of a few wines to the search index without reading all wines again. The change is applied to a
+     * copy so searches using the current index are not affected. If the index is being built it is built again so the
+     * change isn't lost.
+     * @param change creates the changed copy of the index
+     */
+    private void updateIndex(UnaryOperator<WineIndex> change) {
+        if (!WineSettings.getInstance().getBoolean("db.index")) return;
+
+        synchronized (this) {
+            if (index != null) {
+                index = change.apply(index);
+                return;
+            }
+        }
+
+        buildIndex();
+    }
+
+    /**
+     * Add a new or changed wine to the search index.
+     * @param id wine id
+     */
+    private void addToIndex(int id) {
+        if (!WineSettings.getInstance().getBoolean("db.index")) return;
+
+        try {
+            WineIndex wine = db.query(WineIndex.WINE_QUERY, Collections.singletonList(id), WineIndex::new);
+
+            updateIndex(index -> index.with(wine));
+        } catch (WineDatabaseException e) {
+            LOG.warning("Unable to add wine to search index: " + e.getMessage());
+            buildIndex();
+        }
+    }
+
+    /**
+     * Build the trigram index for the text search in the background if it is the selected search backend. The index is
+     * then kept up to date when wines are added or removed. Searches use LIKE queries until the index is built.
+     */
+    private void buildTextIndex() {
+        if (!SEARCH_TRIGRAM.equals(searchBackendName)) return;
+
+        int version;
+        synchronized (this) {
+            version = ++searchBackendVersion;
+            searchBackend = null;
+        }
+
+        new Thread(() -> {
+            long startTime = System.nanoTime();
+
+            try {
+                WineTextIndex newIndex = db.query(WineTextIndex.QUERY, Collections.emptyList(), WineTextIndex::new);
+
+                synchronized (this) {
+                    // wines changed while building, build again
+                    if (version != searchBackendVersion) {
+                        buildTextIndex();
+                        return;
+                    }
+
+                    searchBackend = newIndex;
+                }
+
+                LOG.fine(String.format("Built text index of %d wines in %.1f ms.", newIndex.getSize(),
+                                       (System.nanoTime() - startTime) / 1000000d));
+            } catch (WineDatabaseException e) {
+                LOG.warning("Unable to build text index: " + e.getMessage());
+            }
+        }).start();
+    }
+
+    /**
+     * Search with the text search backend.
+     * @param keywords lower case keywords
+     * @return ids of matching wines, or null if there are no keywords or no search backend is ready
+     */
+    private BitSet searchText(String[] keywords) {
+        WineSearchBackend searchBackend = this.searchBackend;
+
+        if (keywords == null || searchBackend == null)
+            return null;
+
+        long startTime = System.nanoTime();
+
+        try {
+            BitSet ids = searchBackend.search(keywords);
+
+            LOG.fine(String.format("Text search (%s) found %d wines in %.2f ms.", searchBackendName, ids.cardinality(),
+                                   (System.nanoTime() - startTime) / 1000000d));
+
+            return ids;
+        } catch (WineDatabaseException e) {
+            LOG.warning("Text search failed: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static String lower(String text) {
+        return (text != null) ? text.toLowerCase() : null;
+    }
+
+    /**
+     * Create the database conditions of a search, see searchWines. Set to null to skip matching a certain param.
+     * @param searchQuery text query, not null
+     * @param type wine type
+     * @param minPrice minimum price
+     * @param maxPrice maximum price
+     * @param minYear minimum year
+     * @param maxYear maximum year
+     * @param details item details
+     * @param area area
+     * @param country country
+     * @return conditions
+     */
+    private List<Condition> getConditions(String searchQuery, String type, Double minPrice, Double maxPrice, Integer minYear,
+                                          Integer maxYear, ItemDetails details, String area, String country) {
+        List<Condition> conditions = new ArrayList<>();
+
+        // Wine details
+        if (details != null) {
+            if (details.ecological)
+                conditions.add(field("ecological").eq(1));
+            if (details.kosher)
+                conditions.add(field("kosher").eq(1));
+        }
+
+        // Search by text query, a few matches are listed by id and many are matched by the database
+        String[] keywords = searchQuery.isEmpty() ? null : searchQuery.toLowerCase().split(" ");
+        BitSet textMatches = searchText(keywords);
+        if (textMatches != null && textMatches.cardinality() <= MAX_ID_LIST) {
+            conditions.add(field("id").in(toIdList(textMatches)));
+        } else {
+            WineSearchBackend searchBackend = this.searchBackend;
+            Condition condition = (textMatches != null && searchBackend != null) ? searchBackend.getCondition(keywords) : null;
+
+            if (condition != null)
+                conditions.add(condition);
+            else
+                handleSearchQuery(conditions, searchQuery);
+        }
+
+        // Search by selected country, area, and/or type
+        if (type != null) {
+            int typeMask = ItemType.filterMask(type);
+
+            if (typeMask != 0)
+                conditions.add(field("type_mask", Integer.class).bitAnd(typeMask).ne(0));
+            else
+                conditions.add(field("type_lower").contains(type.toLowerCase()));
+        }
+
+        if (area != null)
+            conditions.add(field("area_lower").eq(area.toLowerCase()));
+        if (country != null)
+            conditions.add(field("country_lower").eq(country.toLowerCase()));
+
+        // Filter by year
+        filterBetweenValues(conditions, "year", minYear, maxYear);
+
+        // Filter by price
+        minPrice = (minPrice != null) ? minPrice * 100d : null;
+        maxPrice = (maxPrice != null) ? maxPrice * 100d : null;
+        filterBetweenValues(conditions, "price", minPrice, maxPrice);
+
+        return conditions;
+    }
+
+    /**
+     * List wine ids for an IN condition. The list is padded with its last id to a power of two, so searches share a
+     * few statements in the statement cache instead of one for every number of matches.
+     * @param ids wine ids
+     * @return ids
+     */
+    private static List<Integer> toIdList(BitSet ids) {
+        List<Integer> list = new ArrayList<>();
+        for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1))
+            list.add(id);
+
+        if (!list.isEmpty()) {
+            int size = Integer.highestOneBit(list.size());
+            if (size < list.size())
+                size <<= 1;
+
+            Integer last = list.get(list.size() - 1);
+            while (list.size() < size)
+                list.add(last);
+        }
+
+        return list;
+    }
+
+    /**
+     * Add conditions to filter between two numbers.
+     * @param conditions conditions
      * @param field database field
      * @param min min value
      * @param max max value
      */
-    private void filterBetweenValues(SelectQuery query, String field, Number min, Number max) {
+    private void filterBetweenValues(List<Condition> conditions, String field, Number min, Number max) {
         if (min != null && max != null) {
             if (max.doubleValue() >= min.doubleValue())
-                query.addConditions(field(field).between(min, max));
+                conditions.add(field(field).between(min, max));
             else
-                query.addConditions(field(field).greaterOrEqual(min));
+                conditions.add(field(field).greaterOrEqual(min));
         } else if (min != null) {
-            query.addConditions(field(field).greaterOrEqual(min));
+            conditions.add(field(field).greaterOrEqual(min));
         } else if (max != null) {
-            query.addConditions(field(field).lessOrEqual(max));
+            conditions.add(field(field).lessOrEqual(max));
         }
     }
 
     /**
      * Perform a fuzzy search for names, types, countries and areas.
-     * @param query select query
+     * @param conditions conditions
      * @param search user input query
      */
-    private void handleSearchQuery(SelectQuery query, String search) {
+    private void handleSearchQuery(List<Condition> conditions, String search) {
         String[] keywords = search.toLowerCase().split(" ");
 
         if (search != null && !search.isEmpty() && keywords != null && keywords.length > 0) {
@@ -458,62 +1364,114 @@ public class WineModel extends Model {
             Condition condition = field("name_lower").contains(keywords[0]);
             for (int j = 1; j < searchBy.length; j++)
                 condition = condition.or(field(searchBy[j]).contains(keywords[0]));
-            query.addConditions(condition);
+            conditions.add(condition);
 
             for (int i = 1; i < keywords.length; i++) {
                 condition = field("name_lower").contains(keywords[i]);
                 for (int j = 1; j < searchBy.length; j++)
                     condition = condition.or(field(searchBy[j]).contains(keywords[i]));
-                query.addConditions(condition);
+                conditions.add(condition);
             }
         }
     }
 
     /**
-     * Apply ordering to query.
+     * Apply ordering to query. Wines with the same value are ordered by id so every wine has a fixed position.
      * @param query select query
      * @param sortBy column to sort by
      * @param ascending ascending or descending order
      */
     private void updateSortBy(SelectQuery query, WineTableColumn sortBy, boolean ascending) {
-        Field sortCol;
+        Field sortCol = field(getSortColumn(sortBy));
+        Field idCol = field("id");
+
+        if (ascending)
+            query.addOrderBy(sortCol.asc());
+        else
+            query.addOrderBy(sortCol.desc());
+
+        if (sortBy != WineTableColumn.Id) {
+            if (ascending)
+                query.addOrderBy(idCol.asc());
+            else
+                query.addOrderBy(idCol.desc());
+        }
+    }
+
+    /**
+     * Get the database column for a table column.
+     * @param sortBy table column
+     * @return database column
+     */
+    private String getSortColumn(WineTableColumn sortBy) {
         if (sortBy == WineTableColumn.Id)
-            sortCol = field("id");
+            return "id";
         else if (sortBy == WineTableColumn.FullName)
-            sortCol = field("name");
+            return "name";
         else if (sortBy == WineTableColumn.Type)
-            sortCol = field("type");
+            return "type";
         else if (sortBy == WineTableColumn.Price)
-            sortCol = field("price");
+            return "price";
         else if (sortBy == WineTableColumn.Volume)
-            sortCol = field("volume");
+            return "volume";
         else if (sortBy == WineTableColumn.Year)
-            sortCol = field("year");
+            return "year";
         else if (sortBy == WineTableColumn.From)
-            sortCol = field("from_full");
+            return "from_full";
         else if (sortBy == WineTableColumn.Ecological)
-            sortCol = field("ecological");
+            return "ecological";
         else if (sortBy == WineTableColumn.Kosher)
-            sortCol = field("kosher");
+            return "kosher";
         else if (sortBy == WineTableColumn.Alcohol)
-            sortCol = field("alcohol");
+            return "alcohol";
         else
-            sortCol = field("id");
+            return "id";
+    }
 
-        if (ascending)
-            query.addOrderBy(sortCol.asc());
-        else
-            query.addOrderBy(sortCol.desc());
+    /**
+     * Condition that matches the wines after a wine in the sort order, (sortCol, id) > (key, id). Nulls are sorted
+     * before all other values like in H2.
+     * @param sortCol sort column
+     * @param key sort column value of the wine
+     * @param id id of the wine
+     * @param ascending true for the wines after the wine in ascending order, false for descending order
+     * @return condition
+     */
+    private Condition seekCondition(Field sortCol, Object key, int id, boolean ascending) {
+        Field idCol = field("id");
+
+        if (ascending) {
+            if (key == null)
+                return sortCol.isNull().and(idCol.greaterThan(id)).or(sortCol.isNotNull());
+
+            return sortCol.greaterThan(key).or(sortCol.eq(key).and(idCol.greaterThan(id)));
+        } else {
+            if (key == null)
+                return sortCol.isNull().and(idCol.lessThan(id));
+
+            return sortCol.lessThan(key).or(sortCol.eq(key).and(idCol.lessThan(id))).or(sortCol.isNull());
+        }
     }
 
     /**
      * Called when application has requested the model to load wines from XML file.
      */
     private void load() {
+        WineSettings settings = WineSettings.getInstance();
+        String source = settings.getString("import.file", "sb-2016-02-28.xml");
+
         // Load items
-        if (getWineCount() == 0)
-            new Thread(() -> new WineReader(this, "sb-2016-02-28.xml")).start();
-        else
+        if (getWineCount() == 0) {
+            new Thread(() -> new WineReader(this, source, false)).start();
+        } else {
             finished();
+
+            // Apply changes from a new file in the background
+            if (settings.getBoolean("import.sync") && !source.equals(db.getMeta(IMPORT_SOURCE_KEY))) {
+                LOG.info("Syncing wines with: " + source);
+
+                new Thread(() -> new WineReader(this, source, true)).start();
+            }
+        }
     }
 }
@@ -1,41 +1,67 @@
 package com.gitlab.uu.vinproffsen;
 
-import com.gitlab.uu.vinproffsen.db.WineResult;
-import com.gitlab.uu.vinproffsen.exceptions.UnknownItemException;
-import com.gitlab.uu.vinproffsen.items.Item;
-import com.gitlab.uu.vinproffsen.items.ItemFactory;
-import com.gitlab.uu.vinproffsen.items.Wine;
+import com.gitlab.uu.vinproffsen.db.WineBulkInsert;
+import com.gitlab.uu.vinproffsen.db.WineSync;
+import com.gitlab.uu.vinproffsen.db.WineWriter;
+import com.gitlab.uu.vinproffsen.exceptions.WineDatabaseException;
+import com.gitlab.uu.vinproffsen.items.ItemDictionary;
 import com.gitlab.uu.vinproffsen.items.storage.*;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
+import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.text.NumberFormat;
-import java.text.ParseException;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Locale;
+import java.net.URL;
+import java.nio.file.Paths;
+import java.util.function.Consumer;
 import java.util.logging.Logger;
 
 /**
  * Read wines from XML file provided by Systembolaget.
  *
+ * The file can either be parsed into a DOM document (<tt>import.parser = dom</tt>) or streamed one article at a time
+ * using StAX (<tt>import.parser = stax</tt>). Streaming keeps memory usage constant regardless of the file size.
+ * Articles are converted by a {@link WineImportPipeline} with <tt>import.threads</tt> worker threads and added to the
+ * database through a single bulk insert. If <tt>import.snapshot</tt> is set, the imported wines are also saved to a
+ * binary {@link WineSnapshot} which is loaded instead of parsing the same file again on later starts.
+ *
  * @author Niklas Persson
- * @version 2016-03-17
+ * @version 2016-03-30
  */
 public class WineReader {
     private final static Logger LOG = Logger.getLogger(WineReader.class.getName());
 
+    private static final String ARTICLE_TAG = "artikel";
+    private static final int PROGRESS_MAX = 1000;
+
     private final WineModel model;
 
-    private final DocumentBuilderFactory factory;
-    private DocumentBuilder builder;
+    private final boolean sync;
+
+    private final int maxPrice;
+    private final String parser;
+    private final int threads;
+    private final int queueSize;
+    private final String snapshotFile;
+
+    private long sourceChecksum;
+    private WineSnapshot snapshot;
+
+    private int addedItems;
+    private int ignoredItems;
 
     /**
      * Constructor.
@@ -43,86 +69,278 @@ public class WineReader {
      * @param filename filename of systembolaget xml file
      */
     public WineReader(WineModel model, String filename) {
+        this(model, filename, false);
+    }
+
+    /**
+     * Constructor.
+     * @param model WineModel
+     * @param filename filename of systembolaget xml file, either a file or a resource
+     * @param sync true to only apply changes to wines already in the database, false to import all wines
+     */
+    public WineReader(WineModel model, String filename, boolean sync) {
         this.model = model;
+        this.sync = sync;
 
-        LOG.fine("Loading wines from: " + filename);
+        WineSettings settings = WineSettings.getInstance();
+        maxPrice = settings.getInteger("app.maxPrice");
 
-        factory = DocumentBuilderFactory.newInstance();
-        try {
-            builder = factory.newDocumentBuilder();
+        parser = settings.getString("import.parser", "dom");
+        threads = settings.getInteger("import.threads", Runtime.getRuntime().availableProcessors());
+        queueSize = settings.getInteger("import.queueSize", 1000);
+        snapshotFile = settings.getString("import.snapshot", null);
+
+        LOG.fine((sync ? "Syncing" : "Loading") + " wines from: " + filename + " (parser: " + parser + ", threads: " + threads + ")");
 
-            loadItems(filename);
-        } catch (ParserConfigurationException | IOException e) {
+        try {
+            if (sync) {
+                try (WineSync writer = model.startSync()) {
+                    importArticles(filename, writer);
+                    model.commitSync(writer, filename);
+                }
+            } else if (!loadSnapshot(filename)) {
+                try (WineBulkInsert writer = model.startBulkInsert()) {
+                    importArticles(filename, writer);
+                    addedItems = model.commitBulkInsert(writer, filename);
+                }
+
+                saveSnapshot();
+            }
+        } catch (ParserConfigurationException | XMLStreamException | IOException | WineDatabaseException e) {
             LOG.severe(e.getMessage());
+        } catch (InterruptedException e) {
+            LOG.severe("Interrupted while loading wines.");
+            Thread.currentThread().interrupt();
         }
+
+        finished();
     }
 
     /**
-     * Load items from resource.
-     * @param resourceName resource name
+     * Parse all articles in the file and pass the wines on to the writer.
+     * @param filename filename of systembolaget xml file
+     * @param writer wine writer
+     */
+    private void importArticles(String filename, WineWriter writer) throws IOException, ParserConfigurationException, XMLStreamException, InterruptedException, WineDatabaseException {
+        WineImportPipeline pipeline = new WineImportPipeline(threads, queueSize, this::toWine, wine -> {
+            writer.add(wine);
+
+            if (snapshot != null)
+                snapshot.add(wine);
+        });
+
+        pipeline.start();
+        try {
+            if (parser.equals("stax")) {
+                streamItems(filename, pipeline::submit);
+            } else {
+                loadItems(filename, pipeline::submit);
+            }
+        } finally {
+            pipeline.finish();
+
+            LOG.info(pipeline.getStatistics());
+        }
+
+        ignoredItems = pipeline.getSkipped();
+    }
+
+    /**
+     * Load wines from the snapshot if it was created from the same file and max price. If not, start recording a new
+     * snapshot. The wines are inserted in a bulk insert of their own which is rolled back if the snapshot turns out to
+     * be corrupt.
+     * @param filename filename of systembolaget xml file
+     * @return true if the wines were loaded from the snapshot
      * @throws IOException
+     * @throws WineDatabaseException
      */
-    private void loadItems(String resourceName) throws IOException {
-        WineSettings settings = WineSettings.getInstance();
+    private boolean loadSnapshot(String filename) throws IOException, WineDatabaseException {
+        if (snapshotFile == null) return false;
+
+        long startTime = System.nanoTime();
+
+        sourceChecksum = WineSnapshot.checksum(getSource(filename));
+
+        int count;
+        try (WineBulkInsert writer = model.startBulkInsert()) {
+            count = WineSnapshot.read(Paths.get(snapshotFile), sourceChecksum, maxPrice, writer);
+
+            if (count < 0) {
+                snapshot = new WineSnapshot();
+                return false;
+            }
 
+            addedItems = model.commitBulkInsert(writer, filename);
+        }
+
+        LOG.info(String.format("Loaded %d wines from snapshot in %.1f ms.", count, (System.nanoTime() - startTime) / 1000000d));
+
+        return true;
+    }
+
+    /**
+     * Save the recorded snapshot, if any.
+     */
+    private void saveSnapshot() {
+        if (snapshot == null) return;
+
+        try {
+            snapshot.save(Paths.get(snapshotFile), sourceChecksum, maxPrice);
+        } catch (IOException e) {
+            LOG.warning("Unable to save snapshot: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Load items from resource by parsing the whole document into memory.
+     * @param resourceName resource name
+     * @param consumer article consumer
+     * @throws IOException
+     */
+    private void loadItems(String resourceName, Consumer<ArticleRecord> consumer) throws IOException, ParserConfigurationException {
         Document doc = loadDocument(resourceName);
 
-        NodeList articles = doc.getElementsByTagName("artikel");
+        NodeList articles = doc.getElementsByTagName(ARTICLE_TAG);
         int length = articles.getLength();
 
-        int ignoredItems = 0;
-        int n = 1;
         for (int i = 0; i < length; i++) {
             model.send("wine:progress", i, length);
 
-            Element article = (Element) articles.item(i);
+            consumer.accept(toRecord((Element) articles.item(i)));
+        }
+    }
 
-            ItemType type = new ItemType(getString(article, "Varugrupp"));
+    /**
+     * Load items from resource by streaming one article at a time.
+     * @param resourceName resource name
+     * @param consumer article consumer
+     * @throws IOException
+     * @throws XMLStreamException
+     */
+    private void streamItems(String resourceName, Consumer<ArticleRecord> consumer) throws IOException, XMLStreamException {
+        URL url = getSource(resourceName);
 
-            // Type
-            ItemName name = new ItemName(getString(article, "Namn"), getString(article, "Namn2"));
+        long size = url.openConnection().getContentLengthLong();
 
-            // Seller info
-            String sellStart = getString(article, "Saljstart");
-            String area = getString(article, "Ursprung");
-            String country = getString(article, "Ursprunglandnamn");
-            String producer = getString(article, "Producent");
-            String supplier = getString(article, "Leverantor");
-            int year = getInteger(article, "Argang");
-            int price = (int) (getDouble(article, "Prisinklmoms") * 100);
+        try (ProgressInputStream is = new ProgressInputStream(new BufferedInputStream(url.openStream()), size)) {
+            readArticles(is, consumer);
+        }
+    }
 
-            ItemSeller seller = new ItemSeller(sellStart, area, country, producer, supplier, year, price);
+    /**
+     * Stream articles from an XML input stream and pass each article to the consumer as soon as it has been read.
+     * Fields of an article are expected to be direct children of the <tt>artikel</tt> element.
+     * @param is input stream
+     * @param consumer article consumer
+     * @throws XMLStreamException
+     */
+    private void readArticles(InputStream is, Consumer<ArticleRecord> consumer) throws XMLStreamException {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
 
-            // Details
-            boolean ecological = getBool(article, "Ekologisk");
-            boolean kosher = getBool(article, "Koscher");
-            String assortment = getString(article, "Sortiment");
-            String description = getString(article, "RavarorBeskrivning");
+        XMLStreamReader reader = factory.createXMLStreamReader(is);
 
-            ItemDetails details = new ItemDetails(ecological, kosher, assortment, description);
+        ArticleRecord article = null;
+        String field = null;
+        StringBuilder text = new StringBuilder();
 
-            int volume = (int) getDouble(article, "Volymiml");
-            int pricePerLiter = (int) (getDouble(article, "PrisPerLiter") * 100);
-            int deposit = (int) (getDouble(article, "Pant") * 100);
-            String packaging = getString(article, "Forpackning");
-            String seal = getString(article, "Forslutning");
-            double alcohol = getDouble(article, "Alkoholhalt") / 100d;
+        try {
+            while (reader.hasNext()) {
+                switch (reader.next()) {
+                    case XMLStreamConstants.START_ELEMENT:
+                        if (article == null) {
+                            if (reader.getLocalName().equals(ARTICLE_TAG))
+                                article = new ArticleRecord();
+                        } else if (field == null) {
+                            field = reader.getLocalName();
+                            text.setLength(0);
+                        }
+                        break;
+
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.CDATA:
+                        if (field != null)
+                            text.append(reader.getText());
+                        break;
+
+                    case XMLStreamConstants.END_ELEMENT:
+                        if (article == null)
+                            break;
+
+                        if (field != null && reader.getLocalName().equals(field)) {
+                            article.put(field, text.toString());
+                            field = null;
+                        } else if (field == null && reader.getLocalName().equals(ARTICLE_TAG)) {
+                            consumer.accept(article);
+                            article = null;
+                        }
+                        break;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
 
-            BeverageDetails beverage = new BeverageDetails(volume, pricePerLiter, deposit, packaging, seal, alcohol);
+    /**
+     * Convert an article into wine storage objects. Called from the import worker threads.
+     * @param article raw article
+     * @return wine, or null if the article should be ignored
+     */
+    private WineArticle toWine(ArticleRecord article) {
+        ItemDictionary dictionary = ItemDictionary.getShared();
 
-            // throw away all non-wines and wines that cost more than MAX_PRICE
-            if (!type.isWine() || price > settings.getInteger("app.maxPrice")) {
-                ignoredItems++;
-                continue;
-            }
+        ItemType type = ItemType.of(article.getString("Varugrupp"));
 
-            WineResult queryResult = model.addWine(name, type, seller, details, beverage);
-            if (queryResult.count > 0) {
-                n++;
-            }
+        // Type
+        ItemName name = new ItemName(article.getString("Namn"), article.getString("Namn2"));
+
+        // Seller info
+        String sellStart = dictionary.get(article.getString("Saljstart"));
+        String area = dictionary.get(article.getString("Ursprung"));
+        String country = dictionary.get(article.getString("Ursprunglandnamn"));
+        String producer = dictionary.get(article.getString("Producent"));
+        String supplier = dictionary.get(article.getString("Leverantor"));
+        int year = article.getInteger("Argang");
+        int price = (int) (article.getDouble("Prisinklmoms") * 100);
+
+        ItemSeller seller = new ItemSeller(sellStart, area, country, producer, supplier, year, price);
+
+        // Details
+        boolean ecological = article.getBool("Ekologisk");
+        boolean kosher = article.getBool("Koscher");
+        String assortment = dictionary.get(article.getString("Sortiment"));
+        String description = article.getString("RavarorBeskrivning");
+
+        ItemDetails details = new ItemDetails(ecological, kosher, assortment, description);
+
+        int volume = (int) article.getDouble("Volymiml");
+        int pricePerLiter = (int) (article.getDouble("PrisPerLiter") * 100);
+        int deposit = (int) (article.getDouble("Pant") * 100);
+        String packaging = dictionary.get(article.getString("Forpackning"));
+        String seal = dictionary.get(article.getString("Forslutning"));
+        double alcohol = article.getDouble("Alkoholhalt") / 100d;
+
+        BeverageDetails beverage = new BeverageDetails(volume, pricePerLiter, deposit, packaging, seal, alcohol);
+
+        // throw away all non-wines and wines that cost more than MAX_PRICE
+        if (!type.isWine() || price > maxPrice) {
+            return null;
         }
 
-        LOG.info("Finished loading wines. Added: " + n + " and ignored: " + ignoredItems);
+        Integer articleId = article.has("Artikelid") ? article.getInteger("Artikelid") : null;
+
+        return new WineArticle(articleId, name, type, seller, details, beverage);
+    }
+
+    /**
+     * Called when all articles have been read.
+     */
+    private void finished() {
+        // the model has already finished loading when syncing
+        if (sync) return;
+
+        LOG.info("Finished loading wines. Added: " + addedItems + " and ignored: " + ignoredItems);
 
         model.finished();
     }
@@ -133,67 +351,109 @@ public class WineReader {
      * @return doc
      * @throws IOException
      */
-    private Document loadDocument(String resourceName) throws IOException {
-        InputStream is = WineReader.class.getClassLoader().getResourceAsStream(resourceName);
-        
-        if (is == null) {
-            throw new IOException("Unable to locate resource: " + resourceName);
-        }
+    private Document loadDocument(String resourceName) throws IOException, ParserConfigurationException {
+        InputStream is = getSource(resourceName).openStream();
+
+        DocumentBuilder builder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
 
         try {
             return builder.parse(is);
         } catch (SAXException e) {
-            return null;
+            throw new IOException(e.getMessage());
+        } finally {
+            is.close();
         }
     }
 
     /**
-     * Helper methods to get different data types from element.
+     * Locate the XML file. Files on disk are preferred over resources with the same name.
+     * @param name filename or resource name
+     * @return url to the file
+     * @throws IOException when neither a file nor a resource exists
      */
-    private int getInteger(Element element, String tag) {
-        NodeList elements = element.getElementsByTagName(tag);
-
-        if (elements.getLength() > 0) {
-            try {
-                return Integer.parseInt(elements.item(0).getTextContent());
-            } catch (NumberFormatException e) {
-                return 0;
-            }
-        } else {
-            return 0;
+    private URL getSource(String name) throws IOException {
+        File file = new File(name);
+
+        if (file.isFile()) {
+            return file.toURI().toURL();
         }
+
+        URL url = WineReader.class.getClassLoader().getResource(name);
+
+        if (url == null) {
+            throw new IOException("Unable to locate resource: " + name);
+        }
+
+        return url;
     }
 
-    private double getDouble(Element element, String tag) {
-        NodeList elements = element.getElementsByTagName(tag);
+    /**
+     * Convert an article element into a raw article.
+     * @param element artikel element
+     * @return raw article
+     */
+    private ArticleRecord toRecord(Element element) {
+        ArticleRecord article = new ArticleRecord();
 
-        if (elements.getLength() > 0) {
-            try {
-                String value = elements.item(0).getTextContent();
-                NumberFormat format = NumberFormat.getInstance(Locale.US);
+        NodeList children = element.getChildNodes();
+        for (int i = 0; i < children.getLength(); i++) {
+            Node child = children.item(i);
 
-                return format.parse(value).doubleValue();
-            } catch (ParseException e) {
-                return 0;
-            }
-        } else {
-            return 0;
+            if (child.getNodeType() == Node.ELEMENT_NODE)
+                article.put(child.getNodeName(), child.getTextContent());
         }
+
+        return article;
     }
 
-    private String getString(Element element, String tag) {
-        NodeList elements = element.getElementsByTagName(tag);
+    /**
+     * Input stream that reports how much of the stream has been read as <tt>wine:progress</tt> events.
+     */
+    private class ProgressInputStream extends FilterInputStream {
+        private final long size;
+
+        private long position;
+        private int progress;
 
-        if (elements.getLength() > 0) {
-            return elements.item(0).getTextContent().trim();
-        } else {
-            return "";
+        ProgressInputStream(InputStream in, long size) {
+            super(in);
+
+            this.size = size;
         }
-    }
 
-    private boolean getBool(Element element, String tag) {
-        NodeList elements = element.getElementsByTagName(tag);
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+
+            if (b >= 0)
+                advance(1);
+
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+
+            if (n > 0)
+                advance(n);
 
-        return elements.getLength() > 0 && elements.item(0).getTextContent().equals("1");
+            return n;
+        }
+
+        private void advance(int n) {
+            position += n;
+
+            if (size <= 0)
+                return;
+
+            // keep below max so the progress dialog stays open until the model has finished
+            int current = (int) Math.min(PROGRESS_MAX - 1, PROGRESS_MAX * position / size);
+
+            if (current != progress) {
+                progress = current;
+                model.send("wine:progress", progress, PROGRESS_MAX);
+            }
+        }
     }
 }
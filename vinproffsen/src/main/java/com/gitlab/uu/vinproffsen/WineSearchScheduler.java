@@ -0,0 +1,107 @@
+package com.gitlab.uu.vinproffsen;
+
+import com.gitlab.uu.vinproffsen.db.H2Database;
+import com.gitlab.uu.vinproffsen.db.WineResult;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ * Runs the table searches one at a time in a single search thread.
+ *
+ * A search starts after a short delay so a burst of key presses only runs the last search. Every submitted search gets
+ * a sequence number, and a search that has been replaced by a newer one is skipped if it hasn't started, cancelled in
+ * the database if it is running and not published if it finishes anyway. Published results carry their sequence
+ * number so the view can ignore results that arrive out of order.
+ *
+ * @author Niklas Persson
+ * @version 2016-03-31
+ */
+public class WineSearchScheduler {
+    private final static Logger LOG = Logger.getLogger(WineSearchScheduler.class.getName());
+
+    private final H2Database db;
+    private final long delay;
+
+    private final ScheduledExecutorService executor;
+    private volatile Thread searchThread;
+
+    private long sequence;
+    private volatile long latest;
+    private volatile long running;
+    private ScheduledFuture<?> pending;
+
+    /**
+     * Create a search scheduler.
+     * @param db database the searches run in, used to cancel running queries
+     * @param delay milliseconds to wait for a newer search before starting one
+     */
+    public WineSearchScheduler(H2Database db, long delay) {
+        this.db = db;
+        this.delay = Math.max(0, delay);
+
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "wine-search");
+            thread.setDaemon(true);
+            searchThread = thread;
+            return thread;
+        });
+    }
+
+    /**
+     * Schedule a search and replace any search that hasn't been published yet.
+     * @param search runs the search
+     * @param publish receives the result unless a newer search has been submitted
+     * @return sequence number of the search
+     */
+    public synchronized long submit(Supplier<WineResult> search, Consumer<WineResult> publish) {
+        long seq = ++sequence;
+        latest = seq;
+
+        if (pending != null)
+            pending.cancel(false);
+
+        // a query of an older search is still running, stop it so the new search doesn't wait for it
+        Thread thread = searchThread;
+        if (running != 0 && thread != null) {
+            LOG.fine("Cancelling search " + running);
+            db.cancel(thread);
+        }
+
+        pending = executor.schedule(() -> run(seq, search, publish), delay, TimeUnit.MILLISECONDS);
+
+        return seq;
+    }
+
+    /**
+     * Check if the search running in the current thread has been replaced by a newer search. Results of a replaced
+     * search may be incomplete since its queries are cancelled.
+     * @return true if replaced
+     */
+    public boolean isSuperseded() {
+        return Thread.currentThread() == searchThread && running != latest;
+    }
+
+    private void run(long seq, Supplier<WineResult> search, Consumer<WineResult> publish) {
+        if (seq != latest) return;
+
+        running = seq;
+        try {
+            WineResult result = search.get();
+
+            if (seq == latest)
+                publish.accept(result.withSequence(seq));
+            else
+                LOG.fine("Dropped result of search " + seq);
+        } catch (RuntimeException e) {
+            LOG.warning("Search failed: " + e.getMessage());
+        } finally {
+            running = 0;
+        }
+    }
+}
@@ -95,6 +95,21 @@ public class WineSettings {
         return Integer.parseInt(properties.getProperty(key));
     }
 
+    public int getInteger(String key, int defaultValue) {
+        String value = getString(key);
+
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            LOG.warning("Invalid integer for setting '" + key + "': " + value);
+            return defaultValue;
+        }
+    }
+
     public boolean getBoolean(String key) {
         return Boolean.parseBoolean(properties.getProperty(key));
     }
@@ -0,0 +1,351 @@
+package com.gitlab.uu.vinproffsen;
+
+import com.gitlab.uu.vinproffsen.db.WineWriter;
+import com.gitlab.uu.vinproffsen.exceptions.WineDatabaseException;
+import com.gitlab.uu.vinproffsen.items.ItemDictionary;
+import com.gitlab.uu.vinproffsen.items.storage.*;
+
+import java.io.*;
+import java.net.URL;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Binary snapshot of the wines imported from a Systembolaget XML file, used to skip parsing the file on later starts.
+ *
+ * The snapshot is stored column by column. The header holds a magic number, the format version, the CRC32 checksum
+ * of the XML file the wines were read from, the <tt>app.maxPrice</tt> the wines were filtered with, the number of
+ * wines and the number of columns. Each column is prefixed with its length in bytes and stores one value per wine:
+ * strings as a length prefixed UTF-8 string (-1 for null), integers as 4 bytes ({@link Integer#MIN_VALUE} for null),
+ * doubles as 8 bytes (NaN for null) and booleans as 1 byte.
+ *
+ * Wines are passed on as they are decoded. A corrupt snapshot is only detected when the bad value is reached, so the
+ * writer must not be committed when the snapshot is rejected, and the wines are read from the XML file instead.
+ *
+ * @author Niklas Persson
+ * @version 2016-03-30
+ */
+public class WineSnapshot {
+    private final static Logger LOG = Logger.getLogger(WineSnapshot.class.getName());
+
+    private static final int MAGIC = 0x56505346; // "VPSF"
+    private static final int VERSION = 2;
+
+    private static final int NULL_INT = Integer.MIN_VALUE;
+
+    // Column order
+    private static final int ARTICLE_ID = 0;
+    private static final int NAME = 1;
+    private static final int NAME2 = 2;
+    private static final int TYPE = 3;
+    private static final int SELL_START = 4;
+    private static final int AREA = 5;
+    private static final int COUNTRY = 6;
+    private static final int PRODUCER = 7;
+    private static final int SUPPLIER = 8;
+    private static final int YEAR = 9;
+    private static final int PRICE = 10;
+    private static final int ECOLOGICAL = 11;
+    private static final int KOSHER = 12;
+    private static final int ASSORTMENT = 13;
+    private static final int DESCRIPTION = 14;
+    private static final int VOLUME = 15;
+    private static final int PRICE_PER_LITER = 16;
+    private static final int DEPOSIT = 17;
+    private static final int PACKAGING = 18;
+    private static final int SEAL = 19;
+    private static final int ALCOHOL = 20;
+    private static final int COLUMNS = 21;
+
+    private final ByteArrayOutputStream[] buffers = new ByteArrayOutputStream[COLUMNS];
+    private final DataOutputStream[] columns = new DataOutputStream[COLUMNS];
+    private int count;
+
+    /**
+     * Create an empty snapshot to record wines into.
+     */
+    public WineSnapshot() {
+        for (int i = 0; i < COLUMNS; i++) {
+            buffers[i] = new ByteArrayOutputStream();
+            columns[i] = new DataOutputStream(buffers[i]);
+        }
+    }
+
+    /**
+     * Record a wine. Wines are read back in the same order.
+     * @param wine wine
+     */
+    public void add(WineArticle wine) {
+        try {
+            writeInt(ARTICLE_ID, wine.articleId);
+            writeString(NAME, wine.name.name);
+            writeString(NAME2, wine.name.alternativeName);
+            writeString(TYPE, wine.type.text);
+            writeString(SELL_START, wine.seller.sellStart);
+            writeString(AREA, wine.seller.area);
+            writeString(COUNTRY, wine.seller.country);
+            writeString(PRODUCER, wine.seller.producer);
+            writeString(SUPPLIER, wine.seller.supplier);
+            writeInt(YEAR, wine.seller.year);
+            writeInt(PRICE, wine.seller.price);
+            columns[ECOLOGICAL].writeBoolean(wine.details.ecological != null && wine.details.ecological);
+            columns[KOSHER].writeBoolean(wine.details.kosher != null && wine.details.kosher);
+            writeString(ASSORTMENT, wine.details.assortment);
+            writeString(DESCRIPTION, wine.details.description);
+            writeInt(VOLUME, wine.beverage.volume);
+            writeInt(PRICE_PER_LITER, wine.beverage.pricePerLiter);
+            writeInt(DEPOSIT, wine.beverage.deposit);
+            writeString(PACKAGING, wine.beverage.packaging);
+            writeString(SEAL, wine.beverage.seal);
+            columns[ALCOHOL].writeDouble(wine.beverage.alcohol != null ? wine.beverage.alcohol : Double.NaN);
+        } catch (IOException e) {
+            // writing to memory buffers never fails
+            throw new UncheckedIOException(e);
+        }
+
+        count++;
+    }
+
+    /**
+     * Get number of recorded wines.
+     * @return number of wines
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Save the recorded wines. The file is first written to a temporary file and then moved into place.
+     * @param path snapshot file
+     * @param checksum checksum of the source XML file
+     * @param maxPrice max price the wines were filtered with
+     * @throws IOException
+     */
+    public void save(Path path, long checksum, int maxPrice) throws IOException {
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null)
+            Files.createDirectories(parent);
+
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(checksum);
+            out.writeInt(maxPrice);
+            out.writeInt(count);
+            out.writeInt(COLUMNS);
+
+            for (ByteArrayOutputStream buffer : buffers) {
+                out.writeInt(buffer.size());
+                buffer.writeTo(out);
+            }
+        }
+
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+
+        LOG.fine("Saved snapshot of " + count + " wines to: " + path);
+    }
+
+    /**
+     * Read all wines from a snapshot through a memory mapped file. A corrupt snapshot is deleted, the wines passed on
+     * before the corruption was found must then be rolled back by not committing the writer.
+     * @param path snapshot file
+     * @param checksum checksum of the source XML file, the snapshot is only read if it was created from the same file
+     * @param maxPrice max price the wines are filtered with, the snapshot is only read if it was created with the same
+     * @param writer receives each wine
+     * @return number of read wines, or -1 if there is no valid snapshot for the checksum and max price
+     * @throws IOException
+     * @throws WineDatabaseException when a wine couldn't be written
+     */
+    public static int read(Path path, long checksum, int maxPrice, WineWriter writer) throws IOException, WineDatabaseException {
+        if (!Files.isRegularFile(path))
+            return -1;
+
+        ByteBuffer[] columns;
+        int count;
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if (buffer.remaining() < 28 || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                LOG.warning("Ignoring invalid snapshot: " + path);
+                return -1;
+            }
+
+            if (buffer.getLong() != checksum || buffer.getInt() != maxPrice) {
+                LOG.fine("Ignoring outdated snapshot: " + path);
+                return -1;
+            }
+
+            count = buffer.getInt();
+            columns = sliceColumns(buffer);
+        }
+
+        if (count < 0 || columns == null || !readWines(columns, count, writer)) {
+            LOG.warning("Ignoring corrupt snapshot: " + path);
+            delete(path);
+            return -1;
+        }
+
+        return count;
+    }
+
+    /**
+     * Delete a corrupt snapshot so it isn't read again on the next start.
+     * @param path snapshot file
+     */
+    private static void delete(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            LOG.warning("Unable to delete snapshot: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Decode all wines and pass them on to the writer. Checks that every column holds exactly one value for each wine.
+     * @param columns column buffers
+     * @param count number of wines
+     * @param writer receives each wine
+     * @return true if all wines could be read
+     * @throws WineDatabaseException when a wine couldn't be written
+     */
+    private static boolean readWines(ByteBuffer[] columns, int count, WineWriter writer) throws WineDatabaseException {
+        try {
+            for (int i = 0; i < count; i++)
+                writer.add(readWine(columns));
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            return false;
+        }
+
+        for (ByteBuffer column : columns) {
+            if (column.hasRemaining())
+                return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Split the buffer into one buffer per column. Checks that the columns add up to the size of the file.
+     * @param buffer buffer positioned at the column count
+     * @return column buffers, or null if the columns don't match the file
+     */
+    private static ByteBuffer[] sliceColumns(ByteBuffer buffer) {
+        if (buffer.remaining() < 4 || buffer.getInt() != COLUMNS)
+            return null;
+
+        ByteBuffer[] columns = new ByteBuffer[COLUMNS];
+        for (int i = 0; i < COLUMNS; i++) {
+            if (buffer.remaining() < 4)
+                return null;
+
+            int length = buffer.getInt();
+            if (length < 0 || length > buffer.remaining())
+                return null;
+
+            ByteBuffer column = buffer.slice();
+            column.limit(length);
+            columns[i] = column;
+
+            buffer.position(buffer.position() + length);
+        }
+
+        return buffer.hasRemaining() ? null : columns;
+    }
+
+    /**
+     * Read the next wine from the column buffers.
+     * @param columns column buffers
+     * @return wine
+     */
+    private static WineArticle readWine(ByteBuffer[] columns) {
+        ItemDictionary dictionary = ItemDictionary.getShared();
+
+        Integer articleId = readInt(columns[ARTICLE_ID]);
+        ItemName name = new ItemName(readString(columns[NAME]), readString(columns[NAME2]));
+        ItemType type = ItemType.of(readString(columns[TYPE]));
+        ItemSeller seller = new ItemSeller(dictionary.get(readString(columns[SELL_START])),
+                                           dictionary.get(readString(columns[AREA])),
+                                           dictionary.get(readString(columns[COUNTRY])),
+                                           dictionary.get(readString(columns[PRODUCER])),
+                                           dictionary.get(readString(columns[SUPPLIER])), readInt(columns[YEAR]),
+                                           readInt(columns[PRICE]));
+        ItemDetails details = new ItemDetails(columns[ECOLOGICAL].get() != 0, columns[KOSHER].get() != 0,
+                                              dictionary.get(readString(columns[ASSORTMENT])),
+                                              readString(columns[DESCRIPTION]));
+
+        Integer volume = readInt(columns[VOLUME]);
+        Integer pricePerLiter = readInt(columns[PRICE_PER_LITER]);
+        Integer deposit = readInt(columns[DEPOSIT]);
+        String packaging = dictionary.get(readString(columns[PACKAGING]));
+        String seal = dictionary.get(readString(columns[SEAL]));
+        double alcohol = columns[ALCOHOL].getDouble();
+
+        BeverageDetails beverage = new BeverageDetails(volume, pricePerLiter, deposit, packaging, seal,
+                                                       Double.isNaN(alcohol) ? null : alcohol);
+
+        return new WineArticle(articleId, name, type, seller, details, beverage);
+    }
+
+    /**
+     * Calculate the CRC32 checksum of a file.
+     * @param source file url
+     * @return checksum
+     * @throws IOException
+     */
+    public static long checksum(URL source) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[64 * 1024];
+
+        try (InputStream is = source.openStream()) {
+            int n;
+            while ((n = is.read(buffer)) > 0)
+                crc.update(buffer, 0, n);
+        }
+
+        return crc.getValue();
+    }
+
+    private void writeString(int column, String value) throws IOException {
+        if (value == null) {
+            columns[column].writeInt(-1);
+        } else {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            columns[column].writeInt(bytes.length);
+            columns[column].write(bytes);
+        }
+    }
+
+    private void writeInt(int column, Integer value) throws IOException {
+        columns[column].writeInt(value != null ? value : NULL_INT);
+    }
+
+    private static String readString(ByteBuffer column) {
+        int length = column.getInt();
+
+        if (length < 0)
+            return null;
+
+        if (length > column.remaining())
+            throw new BufferUnderflowException();
+
+        byte[] bytes = new byte[length];
+        column.get(bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static Integer readInt(ByteBuffer column) {
+        int value = column.getInt();
+
+        return value != NULL_INT ? value : null;
+    }
+}
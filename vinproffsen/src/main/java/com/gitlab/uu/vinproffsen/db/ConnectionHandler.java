@@ -0,0 +1,22 @@
+package com.gitlab.uu.vinproffsen.db;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Runs the statements of a transaction on a borrowed connection. The transaction is committed when the handler returns
+ * and rolled back if it throws.
+ *
+ * @author Niklas Persson
+ * @version 2016-03-31
+ */
+@FunctionalInterface
+public interface ConnectionHandler<T> {
+    /**
+     * Run the statements.
+     * @param connection connection with auto commit turned off, don't commit or close it
+     * @return value for the caller of the transaction
+     * @throws SQLException
+     */
+    T run(Connection connection) throws SQLException;
+}
@@ -0,0 +1,177 @@
+package com.gitlab.uu.vinproffsen.db;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Fixed size pool of connections to a database. Connections are opened when first needed and stay open until the pool
+ * is closed, so the statements prepared on a connection can be reused by every thread that borrows it later. A thread
+ * borrows a connection for one operation and releases it when done, waiting for a free connection if all are in use.
+ *
+ * @author Niklas Persson
+ * @version 2016-03-31
+ */
+class ConnectionPool {
+    private final static Logger LOG = Logger.getLogger(ConnectionPool.class.getName());
+
+    private static final long TIMEOUT = 30; // seconds
+
+    private final String uri;
+    private final int size;
+
+    private final BlockingQueue<Pooled> idle;
+    private final List<Pooled> connections = new ArrayList<>();
+    private volatile boolean closed;
+
+    /**
+     * Connection in the pool and the statements prepared on it.
+     */
+    static class Pooled {
+        final Connection connection;
+
+        // Prepared statements by SQL, least recently used first. Only used by the thread that borrowed the connection.
+        final Map<String, PreparedStatement> statements = new LinkedHashMap<>(16, 0.75f, true);
+
+        Pooled(Connection connection) {
+            this.connection = connection;
+        }
+
+        void close() {
+            for (PreparedStatement statement : statements.values())
+                closeQuietly(statement);
+
+            statements.clear();
+            closeQuietly(connection);
+        }
+    }
+
+    /**
+     * Create a pool. No connection is opened until one is borrowed.
+     * @param uri JDBC URI
+     * @param size maximum number of connections
+     */
+    ConnectionPool(String uri, int size) {
+        this.uri = uri;
+        this.size = Math.max(1, size);
+
+        idle = new ArrayBlockingQueue<>(this.size);
+    }
+
+    /**
+     * Borrow a connection in auto commit mode. Opens a new connection if none is free and the pool isn't full.
+     * @return connection, release it with {@link #release(Pooled)}
+     * @throws SQLException when failed to connect or no connection was released in time
+     */
+    Pooled borrow() throws SQLException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT);
+
+        while (true) {
+            if (closed)
+                throw new SQLException("Connection pool is closed.");
+
+            Pooled pooled = idle.poll();
+            if (pooled != null)
+                return pooled;
+
+            synchronized (connections) {
+                if (connections.size() < size) {
+                    pooled = new Pooled(DriverManager.getConnection(uri, "", ""));
+                    connections.add(pooled);
+
+                    LOG.fine("Opened connection " + connections.size() + " of " + size + ".");
+
+                    return pooled;
+                }
+            }
+
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0)
+                throw new SQLException("Timed out waiting for a database connection.");
+
+            // wake up now and then in case a discarded connection left room for a new one
+            try {
+                pooled = idle.poll(Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(100)), TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for a database connection.");
+            }
+
+            if (pooled != null)
+                return pooled;
+        }
+    }
+
+    /**
+     * Give a connection back to the pool. A transaction left open is rolled back, and a connection that can't be reset
+     * is closed and replaced by a new one when needed.
+     * @param pooled borrowed connection
+     */
+    void release(Pooled pooled) {
+        try {
+            if (!pooled.connection.getAutoCommit()) {
+                pooled.connection.rollback();
+                pooled.connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            LOG.warning("Discarding connection: " + e.getMessage());
+
+            discard(pooled);
+            return;
+        }
+
+        if (closed)
+            discard(pooled);
+        else
+            idle.offer(pooled);
+    }
+
+    /**
+     * Get all open connections, borrowed or not.
+     * @return connections
+     */
+    List<Pooled> getConnections() {
+        synchronized (connections) {
+            return new ArrayList<>(connections);
+        }
+    }
+
+    /**
+     * Close all connections. Borrowed connections are closed too.
+     */
+    void close() {
+        closed = true;
+
+        for (Pooled pooled : getConnections())
+            discard(pooled);
+
+        idle.clear();
+    }
+
+    static void closeQuietly(AutoCloseable closeable) {
+        if (closeable == null) return;
+
+        try {
+            closeable.close();
+        } catch (Exception e) {
+            LOG.warning(e.getMessage());
+        }
+    }
+
+    private void discard(Pooled pooled) {
+        synchronized (connections) {
+            connections.remove(pooled);
+        }
+
+        pooled.close();
+    }
+}
@@ -2,6 +2,7 @@ package com.gitlab.uu.vinproffsen.db;
 
 import com.gitlab.uu.vinproffsen.exceptions.WineDatabaseException;
 import org.jooq.DSLContext;
+import org.jooq.Query;
 import org.jooq.SQLDialect;
 import org.jooq.SelectQuery;
 import org.jooq.impl.DSL;
@@ -9,15 +10,26 @@ import org.jooq.impl.DSL;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
- * H2 database base class.
+ * H2 database base class. Every operation borrows a connection from a pool, so searches, imports and edits in
+ * different threads don't share a connection or a transaction.
  *
  * @author Niklas Persson
- * @version 2016-03-17
+ * @version 2016-03-31
  */
 public abstract class H2Database {
     private final static Logger LOG = Logger.getLogger(H2Database.class.getName());
@@ -26,7 +38,24 @@ public abstract class H2Database {
 
     private final String uri;
 
-    protected Connection connection;
+    private ConnectionPool pool;
+    private int poolSize = 8;
+
+    private volatile int statementCacheSize = 32;
+
+    // Statements being executed by each thread. Entries are added, removed and cancelled while holding the map, so a
+    // statement is never cancelled after its query has finished and it has gone back to the statement cache.
+    private final Map<Thread, Statement> running = new ConcurrentHashMap<>();
+
+    // Statements left open by transactions and where each borrowed connection was borrowed, only with leak detection
+    private volatile boolean leakDetection;
+    private final AtomicLong leakedStatements = new AtomicLong();
+    private final Map<ConnectionPool.Pooled, Throwable> borrowed = new ConcurrentHashMap<>();
+
+    // Statement cache statistics
+    private final AtomicLong statementHits = new AtomicLong();
+    private final AtomicLong statementMisses = new AtomicLong();
+    private final AtomicLong prepareTime = new AtomicLong();
 
     /**
      * Construct a H2 database from a JDBC URI.
@@ -40,65 +69,94 @@ public abstract class H2Database {
      * @return true if connected
      */
     public boolean isConnected() {
-        try {
-            return connection != null && !connection.isClosed();
-        } catch (SQLException e) {
-            return false;
-        }
+        return pool != null;
     }
 
     /**
-     * Get JOOQ DSL.
+     * Get JOOQ DSL. The DSL only builds queries, run them with {@link #query(Query, ResultSetHandler)}.
      * @return JOOQ DSL
      */
     public DSLContext getDSL() {
-        return DSL.using(connection, SQLDialect.H2);
+        return DSL.using(SQLDialect.H2);
     }
 
     public SelectQuery getSelectQuery() {
         return getDSL().selectQuery();
     }
 
-    public PreparedStatement getPreparedStatement(String query) {
-        try {
-            return connection.prepareStatement(query);
-        } catch (SQLException e) {
-            LOG.warning(e.getMessage());
-            return null;
-        }
-    }
-
     /**
-     * Connect to database.
+     * Connect to database. Connections are opened from a pool when they are first needed.
      * @throws WineDatabaseException when failed to connect
      */
     public void connect() throws WineDatabaseException {
-        connection = null;
-
         try {
             Class.forName(DB_DRIVER);
         } catch (ClassNotFoundException e) {
             throw new WineDatabaseException(e.getMessage());
         }
 
+        pool = new ConnectionPool(uri, poolSize);
+
+        // fail now if the database can't be opened
+        transaction(connection -> null);
+    }
+
+    /**
+     * Open a new connection to the database outside the pool. Used for long running work like imports that should
+     * not hold on to a pooled connection.
+     * @return new connection, the caller is responsible for closing it
+     * @throws WineDatabaseException when failed to connect
+     */
+    Connection openConnection() throws WineDatabaseException {
         try {
-            connection = DriverManager.getConnection(uri, "", "");
+            return DriverManager.getConnection(uri, "", "");
         } catch (SQLException e) {
             throw new WineDatabaseException(e.getMessage());
         }
     }
 
+    /**
+     * Set the maximum number of pooled connections, used by the next {@link #connect()}.
+     * @param size number of connections
+     */
+    public void setPoolSize(int size) {
+        poolSize = Math.max(1, size);
+    }
+
+    /**
+     * Set the number of prepared statements kept open for reuse on each connection, 0 prepares every query again.
+     * @param size number of statements
+     */
+    public void setStatementCacheSize(int size) {
+        statementCacheSize = Math.max(0, size);
+    }
+
+    /**
+     * Check that transactions close the statements they open and that queries and cursors give their connections back
+     * to the pool. Statements left open are closed and reported, and connections still borrowed when disconnecting
+     * are reported with the stack trace of where they were borrowed. Costs a little for every query.
+     * @param enabled true to check
+     */
+    public void setLeakDetection(boolean enabled) {
+        leakDetection = enabled;
+    }
+
+    public boolean isLeakDetection() {
+        return leakDetection;
+    }
+
     /**
      * Disconnect from database.
      * @throws WineDatabaseException
      */
     public void disconnect() throws WineDatabaseException {
-        try {
-            if (connection != null && !connection.isClosed()) {
-                connection.close();
-            }
-        } catch (SQLException e) {
-            throw new WineDatabaseException(e.getMessage());
+        for (Throwable trace : borrowed.values())
+            LOG.log(Level.WARNING, "Connection still borrowed when disconnecting.", trace);
+        borrowed.clear();
+
+        if (pool != null) {
+            pool.close();
+            pool = null;
         }
     }
 
@@ -109,85 +167,371 @@ public abstract class H2Database {
      */
     public void createTables(boolean dropTables) throws WineDatabaseException {
         try {
-            Statement statement = connection.createStatement();
+            String sql = readFile("create_tables.sql");
 
-            if (dropTables) {
-                statement.execute("DROP TABLE IF EXISTS ITEM");
-            }
+            transaction(connection -> {
+                try (Statement statement = connection.createStatement()) {
+                    if (dropTables) {
+                        statement.execute("DROP TABLE IF EXISTS ITEM");
+                    }
+
+                    statement.execute(sql);
+                }
+                return null;
+            });
+        } catch (IOException e) {
+            throw new WineDatabaseException(e.getMessage());
+        }
+    }
+
+    /**
+     * Run statements in a transaction on a connection borrowed from the pool. The transaction is committed if the
+     * handler returns and rolled back if it throws, other connections don't see any changes until it is committed.
+     * @param handler runs the statements
+     * @return value returned by the handler
+     * @throws WineDatabaseException
+     */
+    public <T> T transaction(ConnectionHandler<T> handler) throws WineDatabaseException {
+        ConnectionPool.Pooled pooled = borrow();
+        Connection connection = pooled.connection;
+        List<Statement> opened = leakDetection ? new ArrayList<>() : null;
 
-            statement.execute(readFile("create_tables.sql"));
-            statement.close();
+        try {
+            connection.setAutoCommit(false);
 
+            T value = handler.run((opened != null) ? track(connection, opened) : connection);
             connection.commit();
-        } catch (SQLException | IOException e) {
+
+            return value;
+        } catch (SQLException e) {
             throw new WineDatabaseException(e.getMessage());
+        } finally {
+            if (opened != null)
+                closeLeaked(opened);
+
+            // rolls back if not committed
+            release(pool, pooled);
         }
     }
 
     /**
-     * Execute query with values.
-     * @param query sql query
+     * Run a jOOQ query as a prepared statement with the query values bound as parameters. Queries with the same SQL
+     * reuse the same prepared statement.
+     * @param query query
+     * @param handler reads the result
+     * @return value returned by the handler
+     * @throws WineDatabaseException
+     */
+    public <T> T query(Query query, ResultSetHandler<T> handler) throws WineDatabaseException {
+        return query(query.getSQL(), query.getBindValues(), handler);
+    }
+
+    /**
+     * Run an SQL query as a prepared statement on a connection borrowed from the pool. Each connection keeps a cache
+     * of prepared statements by SQL so the query is only parsed and planned the first time it runs on a connection.
+     * @param sql sql query with ? for each value
      * @param values values
-     * @return result set
+     * @param handler reads the result
+     * @return value returned by the handler
      * @throws WineDatabaseException
      */
-    public ResultSet execute(String query, String... values) throws WineDatabaseException {
-        if (!isConnected()) return null;
+    public <T> T query(String sql, List<?> values, ResultSetHandler<T> handler) throws WineDatabaseException {
+        ConnectionPool.Pooled pooled = borrow();
+        PreparedStatement statement = null;
 
         try {
-            PreparedStatement statement = connection.prepareStatement(query);
+            statement = prepare(pooled, sql);
 
-            for (int i = 0; i < values.length; i++)
-                statement.setObject(i + 1, values[i]);
+            for (int i = 0; i < values.size(); i++)
+                statement.setObject(i + 1, values.get(i));
 
-            return statement.executeQuery();
+            T value;
+            synchronized (running) {
+                running.put(Thread.currentThread(), statement);
+            }
+
+            try (ResultSet result = statement.executeQuery()) {
+                value = handler.handle(result);
+            } finally {
+                synchronized (running) {
+                    running.remove(Thread.currentThread());
+                }
+            }
+
+            statement.clearParameters();
+
+            return value;
         } catch (SQLException e) {
+            // the statement may be unusable, prepare it again next time
+            pooled.statements.remove(sql);
+            ConnectionPool.closeQuietly(statement);
+            statement = null;
+
             throw new WineDatabaseException(e.getMessage());
+        } finally {
+            if (statement != null && pooled.statements.get(sql) != statement)
+                ConnectionPool.closeQuietly(statement);
+
+            release(pool, pooled);
         }
     }
 
     /**
-     * Execute a raw SQL query.
-     * @param query sql query
-     * @return result set
+     * Run a query and pass the rows to a callback as they are read, without keeping them in memory.
+     * @param query query
+     * @param callback receives each row
+     * @throws WineDatabaseException
+     */
+    public void forEach(Query query, RowCallback callback) throws WineDatabaseException {
+        forEach(query.getSQL(), query.getBindValues(), callback);
+    }
+
+    /**
+     * Run an SQL query and pass the rows to a callback as they are read, without keeping them in memory.
+     * @param sql sql query with ? for each value
+     * @param values values
+     * @param callback receives each row
+     * @throws WineDatabaseException
+     */
+    public void forEach(String sql, List<?> values, RowCallback callback) throws WineDatabaseException {
+        query(sql, values, result -> {
+            while (result.next())
+                callback.row(result);
+            return null;
+        });
+    }
+
+    /**
+     * Open a cursor over the result of a jOOQ query.
+     * @param query query
+     * @param mapper maps each row, null values are skipped
+     * @return open cursor, the caller is responsible for closing it
+     * @throws WineDatabaseException
+     */
+    public <T> RowCursor<T> openCursor(Query query, RowMapper<T> mapper) throws WineDatabaseException {
+        return openCursor(query.getSQL(), query.getBindValues(), mapper);
+    }
+
+    /**
+     * Open a cursor over the result of an SQL query. Rows are mapped one at a time as the cursor moves, so only the
+     * values the caller keeps are on the heap. Embedded H2 ignores the fetch size and buffers the whole result in the
+     * engine, spilling large results to a temporary file, so the query itself still reads every row up front. The
+     * cursor keeps a pooled connection until it is closed and uses its own statement, which is closed with it.
+     * @param sql sql query with ? for each value
+     * @param values values
+     * @param mapper maps each row, null values are skipped
+     * @return open cursor, the caller is responsible for closing it
      * @throws WineDatabaseException
      */
-    public ResultSet execute(String query) throws WineDatabaseException {
-        if (!isConnected()) return null;
+    public <T> RowCursor<T> openCursor(String sql, List<?> values, RowMapper<T> mapper) throws WineDatabaseException {
+        ConnectionPool pool = this.pool;
+        ConnectionPool.Pooled pooled = borrow();
+        PreparedStatement statement = null;
 
         try {
-            Statement statement = connection.createStatement();
+            statement = pooled.connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
 
-            ResultSet resultSet = null;
-            boolean result = statement.execute(query);
+            for (int i = 0; i < values.size(); i++)
+                statement.setObject(i + 1, values.get(i));
 
-            if (result) {
-                resultSet = statement.getResultSet();
-            } else {
-                LOG.warning("Failed to executed query: " + query);
-            }
-            return resultSet;
+            return new RowCursor<>(statement, statement.executeQuery(), mapper, () -> release(pool, pooled));
         } catch (SQLException e) {
+            ConnectionPool.closeQuietly(statement);
+            release(pool, pooled);
+
             throw new WineDatabaseException(e.getMessage());
         }
     }
 
-    public int getCount(String countQuery) {
-        try {
-            Statement statement = connection.createStatement();
+    /**
+     * Cancel the query a thread is running, the query fails with an exception in that thread. Does nothing if the
+     * thread isn't running a query.
+     * @param thread thread
+     */
+    public void cancel(Thread thread) {
+        synchronized (running) {
+            Statement statement = running.get(thread);
+            if (statement == null) return;
+
+            try {
+                statement.cancel();
+            } catch (SQLException e) {
+                LOG.warning(e.getMessage());
+            }
+        }
+    }
 
-            if (statement.execute(countQuery)) {
-                ResultSet result = statement.getResultSet();
-                if (result.next()) {
-                    LOG.fine("Executed count query: " + countQuery);
-                    return result.getInt(1);
+    /**
+     * Get hit rate and time spent preparing statements.
+     * @return statistics as text
+     */
+    public String getStatementCacheStatistics() {
+        long hits = statementHits.get();
+        long misses = statementMisses.get();
+        double prepareMillis = prepareTime.get() / 1000000d;
+        double savedMillis = (misses > 0) ? hits * prepareMillis / misses : 0;
+
+        return String.format("Statement cache: %d hits, %d misses (%.0f%% hit rate), %.1f ms preparing and about %.1f ms saved.",
+                             hits, misses, (hits + misses > 0) ? 100d * hits / (hits + misses) : 0, prepareMillis, savedMillis);
+    }
+
+    /**
+     * Describe the open statements: the prepared statements cached on the pooled connections, the queries running,
+     * the statements closed by leak detection and the connections borrowed by transactions, queries and cursors.
+     * @return report as text
+     */
+    public String getOpenStatementReport() {
+        ConnectionPool pool = this.pool;
+        List<ConnectionPool.Pooled> connections = (pool != null) ? pool.getConnections() : Collections.emptyList();
+
+        int cached = 0;
+        for (ConnectionPool.Pooled pooled : connections)
+            cached += pooled.statements.size();
+
+        return String.format("Open statements: %d cached on %d connections, %d running, %d leaked and closed. %d connections borrowed.",
+                             cached, connections.size(), running.size(), leakedStatements.get(), borrowed.size());
+    }
+
+    /**
+     * Wrap a connection so every statement created through it is added to a list.
+     */
+    private Connection track(Connection connection, List<Statement> opened) {
+        return (Connection) Proxy.newProxyInstance(H2Database.class.getClassLoader(), new Class<?>[] { Connection.class },
+                                                   (proxy, method, args) -> {
+            Object value;
+            try {
+                value = method.invoke(connection, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+
+            if (value instanceof Statement)
+                opened.add((Statement) value);
+
+            return value;
+        });
+    }
+
+    /**
+     * Close and report statements a transaction didn't close.
+     */
+    private void closeLeaked(List<Statement> opened) {
+        int leaked = 0;
+
+        for (Statement statement : opened) {
+            try {
+                if (!statement.isClosed()) {
+                    leaked++;
+                    statement.close();
                 }
+            } catch (SQLException e) {
+                LOG.warning(e.getMessage());
             }
+        }
+
+        if (leaked > 0) {
+            leakedStatements.addAndGet(leaked);
+            LOG.log(Level.WARNING, "Closed " + leaked + " statements left open by a transaction.", new Throwable());
+        }
+    }
+
+    /**
+     * Borrow a connection from the pool.
+     */
+    private ConnectionPool.Pooled borrow() throws WineDatabaseException {
+        ConnectionPool pool = this.pool;
+        if (pool == null)
+            throw new WineDatabaseException("Not connected to database.");
+
+        ConnectionPool.Pooled pooled;
+        try {
+            pooled = pool.borrow();
         } catch (SQLException e) {
-            LOG.log(Level.WARNING, "Error counting items for query: " + countQuery, e);
+            throw new WineDatabaseException(e.getMessage());
+        }
+
+        if (leakDetection)
+            borrowed.put(pooled, new Throwable("Borrowed by " + Thread.currentThread().getName()));
+
+        return pooled;
+    }
+
+    /**
+     * Give a borrowed connection back to the pool it was borrowed from.
+     */
+    private void release(ConnectionPool pool, ConnectionPool.Pooled pooled) {
+        borrowed.remove(pooled);
+        pool.release(pooled);
+    }
+
+    /**
+     * Get a prepared statement from the cache of a borrowed connection or prepare a new one. The least recently used
+     * statements are closed when the cache is full.
+     */
+    private PreparedStatement prepare(ConnectionPool.Pooled pooled, String sql) throws SQLException {
+        PreparedStatement statement = pooled.statements.get(sql);
+
+        if (statement != null && !statement.isClosed()) {
+            statementHits.incrementAndGet();
+            return statement;
         }
 
-        return 0;
+        long startTime = System.nanoTime();
+        statement = pooled.connection.prepareStatement(sql);
+        prepareTime.addAndGet(System.nanoTime() - startTime);
+        statementMisses.incrementAndGet();
+
+        pooled.statements.put(sql, statement);
+
+        Iterator<PreparedStatement> it = pooled.statements.values().iterator();
+        while (pooled.statements.size() > statementCacheSize && it.hasNext()) {
+            PreparedStatement eldest = it.next();
+            if (eldest == statement) continue;
+
+            ConnectionPool.closeQuietly(eldest);
+            it.remove();
+        }
+
+        if (statementCacheSize == 0)
+            pooled.statements.remove(sql);
+
+        return statement;
+    }
+
+    /**
+     * Get a value from the meta table.
+     * @param key key
+     * @return value or null if not set
+     */
+    public String getMeta(String key) {
+        try {
+            return query("SELECT META_VALUE FROM META WHERE META_KEY = ?", Collections.singletonList(key),
+                         result -> result.next() ? result.getString(1) : null);
+        } catch (WineDatabaseException e) {
+            LOG.warning(e.getMessage());
+        }
+
+        return null;
+    }
+
+    /**
+     * Set a value in the meta table.
+     * @param key key
+     * @param value value
+     */
+    public void setMeta(String key, String value) {
+        try {
+            transaction(connection -> {
+                try (PreparedStatement merge = connection.prepareStatement("MERGE INTO META (META_KEY, META_VALUE) KEY (META_KEY) VALUES (?, ?)")) {
+                    merge.setString(1, key);
+                    merge.setString(2, value);
+                    merge.executeUpdate();
+                }
+                return null;
+            });
+        } catch (WineDatabaseException e) {
+            LOG.warning(e.getMessage());
+        }
     }
 
     /**
@@ -198,7 +542,7 @@ public abstract class H2Database {
      */
     private String readFile(String resourceName) throws IOException {
         String line;
-        BufferedReader in = new BufferedReader(new InputStreamReader(H2Database.class.getClassLoader().getResourceAsStream(resourceName)));
+        BufferedReader in = new BufferedReader(new InputStreamReader(H2Database.class.getClassLoader().getResourceAsStream(resourceName), StandardCharsets.UTF_8));
         StringBuilder sb = new StringBuilder();
 
         while ((line = in.readLine()) != null) {
@@ -0,0 +1,64 @@
+package com.gitlab.uu.vinproffsen.db;
+
+import com.gitlab.uu.vinproffsen.exceptions.WineDatabaseException;
+import org.jooq.Condition;
+import org.jooq.impl.DSL;
+
+import java.sql.Array;
+import java.util.BitSet;
+import java.util.Collections;
+
+/**
+ * Text search through the native full text search in H2. The index is kept up to date by triggers in the database, so
+ * added and removed wines need no extra work.
+ *
+ * Unlike the LIKE search and {@link WineTextIndex} the full text search matches whole words, a keyword has to be
+ * a complete word in the name, alternative name, type, area, country or year.
+ *
+ * @author Niklas Persson
+ * @version 2016-03-30
+ */
+public class H2FullTextSearch implements WineSearchBackend {
+    static final String COLUMNS = "NAME,NAME2,TYPE,AREA,COUNTRY,YEAR";
+
+    private final H2WineDatabase db;
+
+    /**
+     * Create a search backend, the full text index must have been created with
+     * {@link H2WineDatabase#createTables(boolean, boolean)}.
+     * @param db database
+     */
+    public H2FullTextSearch(H2WineDatabase db) {
+        this.db = db;
+    }
+
+    @Override
+    public BitSet search(String[] keywords) throws WineDatabaseException {
+        BitSet ids = new BitSet();
+
+        db.query("SELECT KEYS FROM FT_SEARCH_DATA(?, 0, 0) WHERE TABLE = 'ITEMS'",
+                 Collections.singletonList(String.join(" ", keywords)), result -> {
+            while (result.next()) {
+                Array keys = result.getArray(1);
+
+                for (Object key : (Object[]) keys.getArray())
+                    ids.set(((Number) key).intValue());
+            }
+            return null;
+        });
+
+        return ids;
+    }
+
+    @Override
+    public Condition getCondition(String[] keywords) {
+        return DSL.condition("ID IN (SELECT FT.KEYS[0] FROM FT_SEARCH_DATA(?, 0, 0) FT WHERE FT.TABLE = 'ITEMS')",
+                             String.join(" ", keywords));
+    }
+
+    @Override
+    public void add(int id, String... fields) {}
+
+    @Override
+    public void remove(int id) {}
+}
@@ -1,5 +1,6 @@
 package com.gitlab.uu.vinproffsen.db;
 
+import com.gitlab.uu.vinproffsen.exceptions.WineDatabaseException;
 import com.gitlab.uu.vinproffsen.items.Beverage;
 import com.gitlab.uu.vinproffsen.items.Wine;
 import com.gitlab.uu.vinproffsen.items.storage.*;
@@ -7,18 +8,31 @@ import com.gitlab.uu.vinproffsen.items.storage.*;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 /**
  * H2 database with helpers to create/remove wines.
  *
  * @author Niklas Persson
- * @version 2016-03-24
+ * @version 2016-03-30
  */
 public abstract class H2WineDatabase extends H2Database {
     private final static Logger LOG = Logger.getLogger(H2WineDatabase.class.getName());
 
+    static final String INSERT_QUERY = "INSERT INTO ITEMS" + "(name, name2, type, sell_start, area, country, producer, supplier, year, price, ecological, kosher, assortment, description, volume, price_per_liter, deposit, packaging, seal, alcohol, from_full, article_id, article_checksum, type_mask) values" + "(?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)";
+    static final String UPDATE_QUERY = "UPDATE ITEMS SET " + "name = ?, name2 = ?, type = ?, sell_start = ?, area = ?, country = ?, producer = ?, supplier = ?, year = ?, price = ?, ecological = ?, kosher = ?, assortment = ?, description = ?, volume = ?, price_per_liter = ?, deposit = ?, packaging = ?, seal = ?, alcohol = ?, from_full = ?, article_id = ?, article_checksum = ?, type_mask = ?" + " WHERE id = ?";
+
+    // Chart counts kept up to date by addWine, addWines and remove, null until first read. The writes that update
+    // the counts hold the statisticsWrites lock from before the transaction until the counts are updated, so counts
+    // read from the database are only kept if no write committed while they were read.
+    private volatile WineStatistics statistics;
+    private final AtomicInteger statisticsWrites = new AtomicInteger();
+
     /**
      * Construct a H2 database from a JDBC URI.
      *
@@ -28,35 +42,104 @@ public abstract class H2WineDatabase extends H2Database {
         super(uri);
     }
 
+    /**
+     * Create tables from file and the full text index used by {@link H2FullTextSearch}.
+     * @param dropTables drop all tables first if true
+     * @param fullText create the full text index if true
+     * @throws WineDatabaseException
+     */
+    public void createTables(boolean dropTables, boolean fullText) throws WineDatabaseException {
+        createTables(dropTables);
+
+        if (!fullText) return;
+
+        transaction(connection -> {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("CREATE ALIAS IF NOT EXISTS FT_INIT FOR \"org.h2.fulltext.FullText.init\"");
+                statement.execute("CALL FT_INIT()");
+
+                try (ResultSet result = statement.executeQuery("SELECT COUNT(*) FROM FT.INDEXES WHERE SCHEMA = 'PUBLIC' AND TABLE = 'ITEMS'")) {
+                    if (result.next() && result.getInt(1) > 0)
+                        return null;
+                }
+
+                LOG.info("Creating full text index.");
+
+                statement.execute("CALL FT_CREATE_INDEX('PUBLIC', 'ITEMS', '" + H2FullTextSearch.COLUMNS + "')");
+            }
+            return null;
+        });
+    }
+
     /**
      * Add wine to database given a set of parameters.
      * @return id for the created wine, null if failed
      */
     public Integer addWine(ItemName name, ItemType type, ItemSeller seller, ItemDetails details, BeverageDetails bevDetails) {
-        PreparedStatement insert = getPreparedStatement("INSERT INTO ITEMS" + "(name, name2, type, sell_start, area, country, producer, supplier, year, price, ecological, kosher, assortment, description, volume, price_per_liter, deposit, packaging, seal, alcohol, from_full) values" + "(?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)");
-
-        Integer id = null;
-
-        if (insert != null) {
-            try {
-                addWine(insert, name, type, seller, details, bevDetails);
+        try {
+            synchronized (statisticsWrites) {
+                Integer id = transaction(connection -> {
+                    try (PreparedStatement insert = connection.prepareStatement(INSERT_QUERY, Statement.RETURN_GENERATED_KEYS)) {
+                        addWine(insert, name, type, seller, details, bevDetails);
 
-                ResultSet keyResult = insert.getGeneratedKeys();
+                        try (ResultSet keyResult = insert.getGeneratedKeys()) {
+                            return keyResult.next() ? keyResult.getInt(1) : null;
+                        }
+                    }
+                });
 
-                if (keyResult.next()) {
-                    id = keyResult.getInt(1);
-                }
+                countWine(seller.country, type, details.ecological, 1);
 
-                insert.close();
-            } catch (SQLException e) {
-                e.printStackTrace();
+                return id;
             }
+        } catch (WineDatabaseException e) {
+            LOG.warning(e.getMessage());
         }
 
-        return id;
+        return null;
     }
 
     public void addWine(PreparedStatement insert, ItemName name, ItemType type, ItemSeller seller, ItemDetails details, BeverageDetails bevDetails) throws SQLException {
+        bindWine(insert, new WineArticle(null, name, type, seller, details, bevDetails));
+
+        insert.executeUpdate();
+    }
+
+    /**
+     * Start a bulk insert where all wines are inserted in batches in a single transaction. The bulk insert runs on its
+     * own connection so the database can be used as usual until it is committed.
+     * @param batchSize number of rows per batch
+     * @return bulk insert, close it when done
+     * @throws WineDatabaseException
+     */
+    public WineBulkInsert startBulkInsert(int batchSize) throws WineDatabaseException {
+        if (!isConnected())
+            throw new WineDatabaseException("Not connected to database.");
+
+        return new WineBulkInsert(openConnection(), batchSize);
+    }
+
+    /**
+     * Start an incremental sync of the wines imported from Systembolaget. The sync runs on its own connection so
+     * the database can be used as usual until the sync is committed.
+     * @param batchSize number of rows per batch
+     * @return sync, close it when done
+     * @throws WineDatabaseException
+     */
+    public WineSync startSync(int batchSize) throws WineDatabaseException {
+        return new WineSync(openConnection(), batchSize);
+    }
+
+    /**
+     * Bind wine parameters to a statement created from {@link #INSERT_QUERY} or {@link #UPDATE_QUERY}.
+     */
+    static void bindWine(PreparedStatement insert, WineArticle wine) throws SQLException {
+        ItemName name = wine.name;
+        ItemType type = wine.type;
+        ItemSeller seller = wine.seller;
+        ItemDetails details = wine.details;
+        BeverageDetails bevDetails = wine.beverage;
+
         insert.setString(1, name.name);
         insert.setString(2, name.alternativeName);
         insert.setString(3, type.text);
@@ -80,8 +163,9 @@ public abstract class H2WineDatabase extends H2Database {
         insert.setString(19, bevDetails.seal);
         insert.setDouble(20, bevDetails.alcohol);
         insert.setString(21, Beverage.getFullFrom(seller.country, seller.area));
-
-        insert.executeUpdate();
+        insert.setObject(22, wine.articleId);
+        insert.setObject(23, wine.articleId != null ? wine.checksum() : null);
+        insert.setInt(24, type.getMask());
     }
 
     /**
@@ -92,47 +176,49 @@ public abstract class H2WineDatabase extends H2Database {
     public void addWines(List<Wine> wines) {
         if (wines.isEmpty()) return;
 
-        PreparedStatement insert = null;
-        String query = "INSERT INTO ITEMS" + "(id, name, name2, type, sell_start, area, country, producer, supplier, year, price, ecological, kosher, assortment, description, volume, price_per_liter, deposit, packaging, seal, alcohol, from_full) values" + "(?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)";
+        String query = "INSERT INTO ITEMS" + "(id, name, name2, type, sell_start, area, country, producer, supplier, year, price, ecological, kosher, assortment, description, volume, price_per_liter, deposit, packaging, seal, alcohol, from_full, type_mask) values" + "(?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)";
 
         try {
-            connection.setAutoCommit(false);
-
-            insert = connection.prepareStatement(query);
-
-            for (Wine wine : wines) {
-                insert.setInt(1, wine.getId());
-                insert.setString(2, wine.getName());
-                insert.setString(3, wine.getAlternativeName());
-                insert.setString(4, wine.getType().text);
-                insert.setString(5, wine.getSellStart());
-
-                insert.setInt(11, wine.getPrice());
-                insert.setString(15, wine.getDescription());
-
-                insert.setString(6, wine.getArea());
-                insert.setString(7, wine.getCountry());
-                insert.setString(8, wine.getProducer());
-                insert.setString(9, wine.getSupplier());
-                insert.setInt(10, wine.getYear());
-                insert.setBoolean(12, wine.isEcological());
-                insert.setBoolean(13, wine.isKosher());
-                insert.setString(14, wine.getAssortment());
-                insert.setDouble(16, wine.getVolume());
-                insert.setInt(17, wine.getPricePerLiter());
-                insert.setInt(18, wine.getDeposit());
-                insert.setString(19, wine.getPackaging());
-                insert.setString(20, wine.getSeal());
-                insert.setDouble(21, wine.getAlcohol());
-                insert.setString(22, wine.getFrom());
-
-                insert.executeUpdate();
+            synchronized (statisticsWrites) {
+                transaction(connection -> {
+                    try (PreparedStatement insert = connection.prepareStatement(query)) {
+                        for (Wine wine : wines) {
+                            insert.setInt(1, wine.getId());
+                            insert.setString(2, wine.getName());
+                            insert.setString(3, wine.getAlternativeName());
+                            insert.setString(4, wine.getType().text);
+                            insert.setString(5, wine.getSellStart());
+
+                            insert.setInt(11, wine.getPrice());
+                            insert.setString(15, wine.getDescription());
+
+                            insert.setString(6, wine.getArea());
+                            insert.setString(7, wine.getCountry());
+                            insert.setString(8, wine.getProducer());
+                            insert.setString(9, wine.getSupplier());
+                            insert.setInt(10, wine.getYear());
+                            insert.setBoolean(12, wine.isEcological());
+                            insert.setBoolean(13, wine.isKosher());
+                            insert.setString(14, wine.getAssortment());
+                            insert.setDouble(16, wine.getVolume());
+                            insert.setInt(17, wine.getPricePerLiter());
+                            insert.setInt(18, wine.getDeposit());
+                            insert.setString(19, wine.getPackaging());
+                            insert.setString(20, wine.getSeal());
+                            insert.setDouble(21, wine.getAlcohol());
+                            insert.setString(22, wine.getFrom());
+                            insert.setInt(23, wine.getType().getMask());
+
+                            insert.executeUpdate();
+                        }
+                    }
+                    return null;
+                });
+
+                for (Wine wine : wines)
+                    countWine(wine.getCountry(), wine.getType(), wine.isEcological(), 1);
             }
-
-            insert.close();
-
-            connection.commit();
-        } catch (SQLException e) {
+        } catch (WineDatabaseException e) {
             LOG.warning(e.getMessage());
         }
     }
@@ -147,20 +233,70 @@ public abstract class H2WineDatabase extends H2Database {
         String query = "DELETE FROM ITEMS WHERE ID = ?";
 
         try {
-            connection.setAutoCommit(false);
-
-            PreparedStatement delete = connection.prepareStatement(query);
-
-            for (Wine wine : wines) {
-                delete.setInt(1, wine.getId());
-                delete.executeUpdate();
+            synchronized (statisticsWrites) {
+                List<Wine> deleted = transaction(connection -> {
+                    List<Wine> rows = new ArrayList<>();
+
+                    try (PreparedStatement delete = connection.prepareStatement(query)) {
+                        for (Wine wine : wines) {
+                            delete.setInt(1, wine.getId());
+                            if (delete.executeUpdate() > 0)
+                                rows.add(wine);
+                        }
+                    }
+                    return rows;
+                });
+
+                for (Wine wine : deleted)
+                    countWine(wine.getCountry(), wine.getType(), wine.isEcological(), -1);
             }
+        } catch (WineDatabaseException e) {
+            LOG.warning(e.getMessage());
+        }
+    }
 
-            delete.close();
+    /**
+     * Get the chart counts. The counts are read from the database the first time and then kept up to date as wines
+     * are added and removed through this class.
+     * @return statistics
+     * @throws WineDatabaseException
+     */
+    public WineStatistics getStatistics() throws WineDatabaseException {
+        WineStatistics current = statistics;
+        if (current != null)
+            return current;
+
+        int writes = statisticsWrites.get();
+        WineStatistics loaded = query(WineStatistics.QUERY, Collections.emptyList(), WineStatistics::new);
+
+        // keep the counts only if no wine was added or removed while reading them
+        synchronized (statisticsWrites) {
+            if (statistics == null && statisticsWrites.get() == writes)
+                statistics = loaded;
+        }
 
-            connection.commit();
-        } catch (SQLException e) {
-            e.printStackTrace();
+        return loaded;
+    }
+
+    /**
+     * Read the chart counts again next time, used after bulk inserts and syncs that don't update the counts.
+     */
+    public void invalidateStatistics() {
+        synchronized (statisticsWrites) {
+            statisticsWrites.incrementAndGet();
+            statistics = null;
         }
     }
+
+    /**
+     * Update the chart counts after a committed change. Called with the statisticsWrites lock held since before the
+     * transaction, so {@link #getStatistics()} can't keep counts read while the change was being committed.
+     */
+    private void countWine(String country, ItemType type, Boolean ecological, int count) {
+        statisticsWrites.incrementAndGet();
+
+        WineStatistics current = statistics;
+        if (current != null)
+            current.add(country, type, ecological != null && ecological, count);
+    }
 }
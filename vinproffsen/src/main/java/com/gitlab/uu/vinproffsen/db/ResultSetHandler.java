@@ -0,0 +1,21 @@
+package com.gitlab.uu.vinproffsen.db;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Reads the result of a query. The result set is closed when the handler returns.
+ *
+ * @author Niklas Persson
+ * @version 2016-03-31
+ */
+@FunctionalInterface
+public interface ResultSetHandler<T> {
+    /**
+     * Read the result.
+     * @param result result set positioned before the first row
+     * @return value for the caller of the query
+     * @throws SQLException
+     */
+    T handle(ResultSet result) throws SQLException;
+}
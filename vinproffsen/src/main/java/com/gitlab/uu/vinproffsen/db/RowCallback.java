@@ -0,0 +1,20 @@
+package com.gitlab.uu.vinproffsen.db;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Receives the rows of a query result one at a time.
+ *
+ * @author Niklas Persson
+ * @version 2016-03-31
+ */
+@FunctionalInterface
+public interface RowCallback {
+    /**
+     * Read a row. Only read the current row, don't move the result set.
+     * @param row result set positioned at the row
+     * @throws SQLException
+     */
+    void row(ResultSet row) throws SQLException;
+}
@@ -0,0 +1,93 @@
+package com.gitlab.uu.vinproffsen.db;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Open query result mapped one row at a time, so the caller decides which rows are kept in memory. The database may
+ * still hold the whole result until the cursor is closed, see {@link H2Database#openCursor(String, List, RowMapper)}.
+ * The cursor keeps a pooled connection borrowed until it is closed, always close it with try-with-resources.
+ *
+ * Errors while reading rows are thrown as {@link CursorException} since {@link Iterator} can't throw checked
+ * exceptions.
+ *
+ * @author Niklas Persson
+ * @version 2016-03-31
+ */
+public class RowCursor<T> implements Iterator<T>, AutoCloseable {
+    private final Statement statement;
+    private final ResultSet result;
+    private final RowMapper<T> mapper;
+    private final Runnable release;
+
+    private T next;
+    private boolean closed;
+
+    /**
+     * Create a cursor over an executed query.
+     * @param statement statement the result belongs to, closed with the cursor
+     * @param result result set
+     * @param mapper maps each row, null values are skipped
+     * @param release called once when the cursor is closed
+     */
+    RowCursor(Statement statement, ResultSet result, RowMapper<T> mapper, Runnable release) {
+        this.statement = statement;
+        this.result = result;
+        this.mapper = mapper;
+        this.release = release;
+    }
+
+    @Override
+    public boolean hasNext() {
+        try {
+            while (next == null && !closed) {
+                if (result.next())
+                    next = mapper.map(result);
+                else
+                    close();
+            }
+        } catch (SQLException e) {
+            close();
+            throw new CursorException(e);
+        }
+
+        return next != null;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+
+        T value = next;
+        next = null;
+
+        return value;
+    }
+
+    /**
+     * Close the result and give the connection back to the pool. The cursor is closed by itself after the last row.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+
+        ConnectionPool.closeQuietly(result);
+        ConnectionPool.closeQuietly(statement);
+        release.run();
+    }
+
+    /**
+     * Failure to read a row from an open cursor.
+     */
+    public static class CursorException extends RuntimeException {
+        CursorException(SQLException e) {
+            super(e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.gitlab.uu.vinproffsen.db;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Maps the current row of a query result to a value.
+ *
+ * @author Niklas Persson
+ * @version 2016-03-31
+ */
+@FunctionalInterface
+public interface RowMapper<T> {
+    /**
+     * Map a row. Only read the current row, don't move the result set.
+     * @param row result set positioned at the row
+     * @return value, null values are skipped
+     * @throws SQLException
+     */
+    T map(ResultSet row) throws SQLException;
+}
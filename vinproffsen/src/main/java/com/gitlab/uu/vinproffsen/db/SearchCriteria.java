@@ -0,0 +1,101 @@
+package com.gitlab.uu.vinproffsen.db;
+
+import com.gitlab.uu.vinproffsen.ui.table.WineTableColumn;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Normalized parameters of a wine search, used as key in the {@link WineResultCache}. Searches that always give the same
+ * wines are equal: text is compared in lower case and the keywords of the text query in any order.
+ *
+ * @author Niklas Persson
+ * @version 2016-03-31
+ */
+public class SearchCriteria {
+    public final String query;
+    public final String type;
+    public final Double minPrice;
+    public final Double maxPrice;
+    public final Integer minYear;
+    public final Integer maxYear;
+    public final boolean ecological;
+    public final boolean kosher;
+    public final String area;
+    public final String country;
+
+    // Sorting
+    public final WineTableColumn sortBy;
+    public final boolean ascending;
+
+    // Pagination
+    public final int page;
+    public final int winesPerPage;
+
+    public SearchCriteria(String query, String type, Double minPrice, Double maxPrice, Integer minYear, Integer maxYear,
+                          boolean ecological, boolean kosher, String area, String country, WineTableColumn sortBy,
+                          boolean ascending, int page, int winesPerPage) {
+        this.query = normalizeQuery(query);
+        this.type = lower(type);
+        this.minPrice = minPrice;
+        this.maxPrice = maxPrice;
+        this.minYear = minYear;
+        this.maxYear = maxYear;
+        this.ecological = ecological;
+        this.kosher = kosher;
+        this.area = lower(area);
+        this.country = lower(country);
+
+        this.sortBy = sortBy;
+        this.ascending = ascending;
+
+        this.page = page;
+        this.winesPerPage = winesPerPage;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof SearchCriteria)) return false;
+
+        SearchCriteria other = (SearchCriteria) o;
+
+        return ecological == other.ecological && kosher == other.kosher && ascending == other.ascending
+               && page == other.page && winesPerPage == other.winesPerPage && sortBy == other.sortBy
+               && query.equals(other.query) && Objects.equals(type, other.type)
+               && Objects.equals(minPrice, other.minPrice) && Objects.equals(maxPrice, other.maxPrice)
+               && Objects.equals(minYear, other.minYear) && Objects.equals(maxYear, other.maxYear)
+               && Objects.equals(area, other.area) && Objects.equals(country, other.country);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(query, type, minPrice, maxPrice, minYear, maxYear, ecological, kosher, area, country,
+                            sortBy, ascending, page, winesPerPage);
+    }
+
+    @Override
+    public String toString() {
+        return "SearchCriteria{query='" + query + "', type=" + type + ", price=" + minPrice + "-" + maxPrice
+               + ", year=" + minYear + "-" + maxYear + ", ecological=" + ecological + ", kosher=" + kosher
+               + ", area=" + area + ", country=" + country + ", sortBy=" + sortBy + ", ascending=" + ascending
+               + ", page=" + page + ", winesPerPage=" + winesPerPage + "}";
+    }
+
+    /**
+     * Lower case the keywords, skip empty keywords and sort them since every keyword has to match.
+     */
+    private static String normalizeQuery(String query) {
+        if (query == null)
+            return "";
+
+        String[] keywords = query.trim().toLowerCase().split(" +");
+        Arrays.sort(keywords);
+
+        return String.join(" ", keywords).trim();
+    }
+
+    private static String lower(String text) {
+        return (text != null) ? text.toLowerCase() : null;
+    }
+}
@@ -0,0 +1,137 @@
+package com.gitlab.uu.vinproffsen.db;
+
+import com.gitlab.uu.vinproffsen.exceptions.WineDatabaseException;
+import com.gitlab.uu.vinproffsen.items.storage.WineArticle;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.logging.Logger;
+
+/**
+ * Bulk insert of wines. All wines are inserted with the same prepared statement in batches of <tt>batchSize</tt> rows
+ * inside a single transaction on a connection of its own. Nothing is visible to other connections until
+ * {@link #commit()} is called, and closing the bulk insert without committing rolls back everything that was added.
+ *
+ * @author Niklas Persson
+ * @version 2016-03-29
+ */
+public class WineBulkInsert implements WineWriter {
+    private final static Logger LOG = Logger.getLogger(WineBulkInsert.class.getName());
+
+    private final Connection connection;
+    private final PreparedStatement insert;
+    private final int batchSize;
+
+    private int pending;
+    private int count;
+    private boolean committed;
+
+    /**
+     * Start a new bulk insert.
+     * @param connection connection used only by this bulk insert, closed by {@link #close()}
+     * @param batchSize number of rows per batch
+     * @throws WineDatabaseException
+     */
+    WineBulkInsert(Connection connection, int batchSize) throws WineDatabaseException {
+        this.connection = connection;
+        this.batchSize = Math.max(1, batchSize);
+
+        try {
+            connection.setAutoCommit(false);
+
+            insert = connection.prepareStatement(H2WineDatabase.INSERT_QUERY);
+        } catch (SQLException e) {
+            try {
+                connection.close();
+            } catch (SQLException ignored) {}
+
+            throw new WineDatabaseException(e.getMessage());
+        }
+    }
+
+    /**
+     * Add a wine to the current batch. The batch is sent to the database when it is full.
+     * @param wine wine
+     * @throws WineDatabaseException
+     */
+    @Override
+    public void add(WineArticle wine) throws WineDatabaseException {
+        try {
+            H2WineDatabase.bindWine(insert, wine);
+            insert.addBatch();
+        } catch (SQLException e) {
+            throw new WineDatabaseException(e.getMessage());
+        }
+
+        if (++pending >= batchSize)
+            flush();
+    }
+
+    /**
+     * Send the current batch to the database.
+     * @throws WineDatabaseException
+     */
+    public void flush() throws WineDatabaseException {
+        if (pending == 0) return;
+
+        try {
+            insert.executeBatch();
+        } catch (SQLException e) {
+            throw new WineDatabaseException(e.getMessage());
+        }
+
+        count += pending;
+        pending = 0;
+    }
+
+    /**
+     * Send the last batch and commit the transaction.
+     * @return number of inserted wines
+     * @throws WineDatabaseException
+     */
+    @Override
+    public int commit() throws WineDatabaseException {
+        flush();
+
+        try {
+            connection.commit();
+        } catch (SQLException e) {
+            throw new WineDatabaseException(e.getMessage());
+        }
+
+        committed = true;
+
+        LOG.fine("Committed bulk insert of " + count + " wines.");
+
+        return count;
+    }
+
+    /**
+     * Get the number of wines sent to the database so far.
+     * @return number of wines
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Close the statement and the connection. Rolls back the transaction if it wasn't committed.
+     */
+    @Override
+    public void close() {
+        try {
+            if (!committed) {
+                if (count + pending > 0)
+                    LOG.warning("Rolling back bulk insert of " + (count + pending) + " wines.");
+
+                connection.rollback();
+            }
+
+            insert.close();
+            connection.close();
+        } catch (SQLException e) {
+            LOG.warning(e.getMessage());
+        }
+    }
+}
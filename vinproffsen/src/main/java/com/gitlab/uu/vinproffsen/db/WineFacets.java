@@ -0,0 +1,96 @@
+package com.gitlab.uu.vinproffsen.db;
+
+import com.gitlab.uu.vinproffsen.items.storage.ItemType;
+
+import java.util.*;
+
+/**
+ * Values of the country, area and type filters together with the number of wines matching each value.
+ *
+ * Each facet is counted with one grouped query, with all search filters except the filter of the facet itself, so the
+ * count of a value is the number of wines the search would find if that value was selected. Types are counted by the
+ * full type text and the count of a type filter is summed from the types it matches, since some types are comma
+ * separated lists and the type filter matches words in the type.
+ *
+ * @author Niklas Persson
+ * @version 2016-03-31
+ */
+public class WineFacets {
+    /**
+     * Filters with values to count.
+     */
+    public enum Facet {
+        Country("COUNTRY"),
+        Area("AREA"),
+        Type("TYPE");
+
+        /**
+         * Column the facet is grouped by.
+         */
+        public final String column;
+
+        Facet(String column) {
+            this.column = column;
+        }
+    }
+
+    private final Map<Facet, Map<String, Integer>> counts = new EnumMap<>(Facet.class);
+
+    public WineFacets() {
+        for (Facet facet : Facet.values())
+            counts.put(facet, new TreeMap<>());
+    }
+
+    /**
+     * Add the number of wines with a value. Null and empty values are skipped.
+     * @param facet facet
+     * @param value value of the facet column
+     * @param count number of wines
+     */
+    public void add(Facet facet, String value, int count) {
+        if (value == null || value.isEmpty()) return;
+
+        counts.get(facet).merge(value, count, Integer::sum);
+    }
+
+    /**
+     * Get all values of a facet in sorted order. Types are the comma separated parts of the stored types.
+     * @param facet facet
+     * @return values
+     */
+    public List<String> getValues(Facet facet) {
+        if (facet != Facet.Type)
+            return new ArrayList<>(counts.get(facet).keySet());
+
+        Set<String> types = new TreeSet<>();
+        for (String type : counts.get(Facet.Type).keySet()) {
+            for (String part : type.split(",")) {
+                part = part.trim();
+                if (!part.isEmpty())
+                    types.add(part);
+            }
+        }
+
+        return new ArrayList<>(types);
+    }
+
+    /**
+     * Get the number of wines matching a filter value, with the same rules as the search filters: countries and areas
+     * are compared ignoring case and types with {@link ItemType#matches(String)}.
+     * @param facet facet
+     * @param filter filter value
+     * @return number of wines
+     */
+    public int getCount(Facet facet, String filter) {
+        int count = 0;
+
+        for (Map.Entry<String, Integer> entry : counts.get(facet).entrySet()) {
+            boolean match = (facet == Facet.Type) ? ItemType.of(entry.getKey()).matches(filter)
+                                                  : entry.getKey().equalsIgnoreCase(filter);
+            if (match)
+                count += entry.getValue();
+        }
+
+        return count;
+    }
+}
@@ -0,0 +1,584 @@
+package com.gitlab.uu.vinproffsen.db;
+
+import com.gitlab.uu.vinproffsen.items.ItemDictionary;
+import com.gitlab.uu.vinproffsen.items.storage.ItemType;
+import com.gitlab.uu.vinproffsen.ui.table.WineTableColumn;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * Read-only columnar copy of the searchable wine columns, used to filter and sort wines without querying the database.
+ *
+ * Every wine is a row number into a set of primitive columns: ids, prices, years and volumes as int arrays, alcohol as
+ * a double array, the type masks of {@link ItemType} as an int array and ecological and kosher as bitsets. Types,
+ * areas, countries and years (as text) are dictionary encoded so a text predicate is evaluated once per distinct value
+ * and then applied to the rows as an int lookup. A search narrows down a bitset of matching rows one column at a time
+ * and returns the matching wine ids in sorted order; the wines themselves are still read from the database.
+ *
+ * The index is never changed once built. Build a new index when many wines change, or get an updated copy with
+ * {@link #with(WineIndex)} and {@link #without(Collection)} when a few wines are added, changed or removed.
+ *
+ * @author Niklas Persson
+ * @version 2016-03-30
+ */
+public class WineIndex {
+    private static final String SELECT = "SELECT ID, NAME, NAME_LOWER, NAME2_LOWER, TYPE, AREA_LOWER, COUNTRY_LOWER, " +
+                                         "FROM_FULL, YEAR, PRICE, VOLUME, ALCOHOL, ECOLOGICAL, KOSHER, TYPE_MASK FROM ITEMS";
+
+    /**
+     * Columns needed to build the index, rows in id order.
+     */
+    public static final String QUERY = SELECT + " ORDER BY ID";
+
+    /**
+     * Columns of a single wine, takes the wine id as parameter. Used to build an index of an added or changed wine.
+     */
+    public static final String WINE_QUERY = SELECT + " WHERE ID = ?";
+
+    private static final int NULL_INT = Integer.MIN_VALUE;
+
+    // Values of every wine, kept to build updated copies of the index
+    private final Rows rows;
+    private final int size;
+
+    // Primitive columns
+    private final int[] ids;
+    private final int[] prices;
+    private final int[] years;
+    private final int[] volumes;
+    private final double[] alcohol;
+    private final int[] typeMasks;
+
+    // Bit columns
+    private final BitSet ecological = new BitSet();
+    private final BitSet kosher = new BitSet();
+
+    // Text columns
+    private final String[] names;
+    private final String[] names2;
+    private final Dictionary types = new Dictionary();
+    private final Dictionary areas = new Dictionary();
+    private final Dictionary countries = new Dictionary();
+    private final Dictionary yearTexts = new Dictionary();
+
+    // Sort keys for columns that are not sorted by their own values
+    private final int[] nameRanks;
+    private final int[] typeRanks;
+    private final int[] fromRanks;
+    private final int[] alcoholRanks;
+
+    /**
+     * Build the index from the result of {@link #QUERY}.
+     * @param result result set
+     * @throws SQLException
+     */
+    public WineIndex(ResultSet result) throws SQLException {
+        this(Rows.read(result));
+    }
+
+    private WineIndex(Rows rows) {
+        this.rows = rows;
+
+        size = rows.size;
+        ids = rows.ids;
+        prices = rows.prices;
+        years = rows.years;
+        volumes = rows.volumes;
+        alcohol = rows.alcohol;
+        typeMasks = rows.typeMasks;
+        names = rows.names;
+        names2 = rows.names2;
+
+        for (int row = 0; row < size; row++) {
+            types.add(row, rows.types[row]);
+            areas.add(row, rows.areas[row]);
+            countries.add(row, rows.countries[row]);
+            yearTexts.add(row, years[row] != NULL_INT ? String.valueOf(years[row]) : null);
+            ecological.set(row, rows.ecological[row]);
+            kosher.set(row, rows.kosher[row]);
+        }
+
+        nameRanks = rank(rows.sortNames);
+        typeRanks = types.ranks(size);
+        fromRanks = rank(rows.froms);
+        alcoholRanks = rank(alcohol);
+
+        // Types are matched in lower case but sorted by the original text
+        types.lowerCase();
+    }
+
+    /**
+     * Get a copy of the index with wines added, wines with the same ids are replaced. This index is not changed.
+     * @param wines index of the added or changed wines, for example built from {@link #WINE_QUERY}
+     * @return updated index
+     */
+    public WineIndex with(WineIndex wines) {
+        Rows merged = new Rows(size + wines.size);
+
+        int i = 0;
+        int j = 0;
+        while (i < size || j < wines.size) {
+            if (j == wines.size || (i < size && ids[i] < wines.ids[j])) {
+                merged.copy(rows, i++);
+            } else {
+                if (i < size && ids[i] == wines.ids[j])
+                    i++;
+
+                merged.copy(wines.rows, j++);
+            }
+        }
+
+        return new WineIndex(merged.trim());
+    }
+
+    /**
+     * Get a copy of the index without some wines. This index is not changed.
+     * @param removed ids of the removed wines
+     * @return updated index
+     */
+    public WineIndex without(Collection<Integer> removed) {
+        Set<Integer> ids = new HashSet<>(removed);
+        Rows kept = new Rows(size);
+
+        for (int i = 0; i < size; i++) {
+            if (!ids.contains(this.ids[i]))
+                kept.copy(rows, i);
+        }
+
+        return new WineIndex(kept.trim());
+    }
+
+    /**
+     * Get number of wines in the index.
+     * @return number of wines
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Find all wines matching the provided parameters, with the same rules as the database search. Set to null to skip
+     * matching a certain param.
+     * @param ids ids of the wines to search among, for example the wines matching a {@link WineTextIndex} search
+     * @param keywords lower case keywords, each has to be part of the name, alternative name, type, area, country or year
+     * @param type lower case text that has to be part of the type
+     * @param minPrice minimum price in öre
+     * @param maxPrice maximum price in öre
+     * @param minYear minimum year
+     * @param maxYear maximum year
+     * @param ecological only ecological wines if true
+     * @param kosher only kosher wines if true
+     * @param area lower case area
+     * @param country lower case country
+     * @param sortBy column to sort by
+     * @param ascending ascending or descending order
+     * @return ids of all matching wines in sorted order
+     */
+    public int[] search(BitSet ids, String[] keywords, String type, Double minPrice, Double maxPrice, Integer minYear, Integer maxYear,
+                        boolean ecological, boolean kosher, String area, String country, WineTableColumn sortBy, boolean ascending) {
+        BitSet matches = new BitSet(size);
+        matches.set(0, size);
+
+        if (ids != null) {
+            for (int i = 0; i < size; i++)
+                if (!ids.get(this.ids[i]))
+                    matches.clear(i);
+        }
+
+        if (ecological)
+            matches.and(this.ecological);
+        if (kosher)
+            matches.and(this.kosher);
+
+        if (type != null)
+            filterType(matches, type);
+        if (area != null)
+            areas.filter(matches, area::equals);
+        if (country != null)
+            countries.filter(matches, country::equals);
+
+        filterBetweenValues(matches, years, minYear, maxYear);
+        filterBetweenValues(matches, prices, minPrice, maxPrice);
+
+        if (keywords != null) {
+            for (String keyword : keywords)
+                filterKeyword(matches, keyword);
+        }
+
+        return sort(matches, sortBy, ascending);
+    }
+
+    /**
+     * Keep rows of a type. Single type and sweetness words are matched against the type mask, other filters against
+     * the type text.
+     * @param matches rows to filter
+     * @param type lower case type filter
+     */
+    private void filterType(BitSet matches, String type) {
+        int mask = ItemType.filterMask(type);
+
+        if (mask == 0) {
+            types.filter(matches, value -> value.contains(type));
+            return;
+        }
+
+        for (int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1)) {
+            if ((typeMasks[i] & mask) == 0)
+                matches.clear(i);
+        }
+    }
+
+    /**
+     * Keep rows where any of the searchable text columns contains the keyword.
+     * @param matches rows to filter
+     * @param keyword lower case keyword
+     */
+    private void filterKeyword(BitSet matches, String keyword) {
+        Predicate<String> contains = value -> value.contains(keyword);
+
+        BitSet typeCodes = types.match(contains);
+        BitSet areaCodes = areas.match(contains);
+        BitSet countryCodes = countries.match(contains);
+        BitSet yearCodes = yearTexts.match(contains);
+
+        for (int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1)) {
+            boolean match = (names[i] != null && names[i].contains(keyword))
+                    || (names2[i] != null && names2[i].contains(keyword))
+                    || typeCodes.get(types.codes[i])
+                    || areaCodes.get(areas.codes[i])
+                    || countryCodes.get(countries.codes[i])
+                    || yearCodes.get(yearTexts.codes[i]);
+
+            if (!match)
+                matches.clear(i);
+        }
+    }
+
+    /**
+     * Keep rows with a value between min and max. If max is less than min only min is used.
+     * @param matches rows to filter
+     * @param column int column
+     * @param min min value or null
+     * @param max max value or null
+     */
+    private void filterBetweenValues(BitSet matches, int[] column, Number min, Number max) {
+        if (min == null && max == null) return;
+
+        double low = (min != null) ? min.doubleValue() : Double.NEGATIVE_INFINITY;
+        double high = (max != null && (min == null || max.doubleValue() >= low)) ? max.doubleValue() : Double.POSITIVE_INFINITY;
+
+        for (int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1)) {
+            int value = column[i];
+            if (value == NULL_INT || value < low || value > high)
+                matches.clear(i);
+        }
+    }
+
+    /**
+     * Sort matching rows by a column. Rows with equal values are sorted by id in the same direction, like the database.
+     * @param matches matching rows
+     * @param sortBy column to sort by
+     * @param ascending ascending or descending order
+     * @return ids in sorted order
+     */
+    private int[] sort(BitSet matches, WineTableColumn sortBy, boolean ascending) {
+        int[] keys = getSortKeys(sortBy);
+
+        // sort key in the high bits and row in the low bits sorts by key and then by row, rows are in id order
+        long[] rows = new long[matches.cardinality()];
+        int n = 0;
+        for (int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1)) {
+            long key = ascending ? keys[i] : ~keys[i];
+            int row = ascending ? i : Integer.MAX_VALUE - i;
+            rows[n++] = (key << 32) | row;
+        }
+
+        Arrays.sort(rows);
+
+        int[] result = new int[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            int row = (int) rows[i];
+            result[i] = ids[ascending ? row : Integer.MAX_VALUE - row];
+        }
+
+        return result;
+    }
+
+    private int[] getSortKeys(WineTableColumn sortBy) {
+        if (sortBy == WineTableColumn.FullName)
+            return nameRanks;
+        else if (sortBy == WineTableColumn.Type)
+            return typeRanks;
+        else if (sortBy == WineTableColumn.Price)
+            return prices;
+        else if (sortBy == WineTableColumn.Volume)
+            return volumes;
+        else if (sortBy == WineTableColumn.Year)
+            return years;
+        else if (sortBy == WineTableColumn.From)
+            return fromRanks;
+        else if (sortBy == WineTableColumn.Ecological)
+            return toInts(ecological);
+        else if (sortBy == WineTableColumn.Kosher)
+            return toInts(kosher);
+        else if (sortBy == WineTableColumn.Alcohol)
+            return alcoholRanks;
+        else
+            return ids;
+    }
+
+    private int[] toInts(BitSet bits) {
+        int[] values = new int[size];
+        for (int i = bits.nextSetBit(0); i >= 0 && i < size; i = bits.nextSetBit(i + 1))
+            values[i] = 1;
+
+        return values;
+    }
+
+    private static int getInt(ResultSet result, String column) throws SQLException {
+        int value = result.getInt(column);
+
+        return result.wasNull() ? NULL_INT : value;
+    }
+
+    /**
+     * Rank values in sort order, equal values get the same rank and nulls are ranked first like in the database.
+     * @param values values
+     * @return rank of each value
+     */
+    private static int[] rank(String[] values) {
+        Integer[] order = new Integer[values.length];
+        for (int i = 0; i < order.length; i++)
+            order[i] = i;
+
+        Arrays.sort(order, Comparator.comparing(i -> values[i], Comparator.nullsFirst(Comparator.<String>naturalOrder())));
+
+        int[] ranks = new int[values.length];
+        for (int i = 1; i < order.length; i++) {
+            int previous = ranks[order[i - 1]];
+            ranks[order[i]] = Objects.equals(values[order[i]], values[order[i - 1]]) ? previous : previous + 1;
+        }
+
+        return ranks;
+    }
+
+    private static int[] rank(double[] values) {
+        Integer[] order = new Integer[values.length];
+        for (int i = 0; i < order.length; i++)
+            order[i] = i;
+
+        Arrays.sort(order, Comparator.comparingDouble(i -> values[i]));
+
+        int[] ranks = new int[values.length];
+        for (int i = 1; i < order.length; i++) {
+            int previous = ranks[order[i - 1]];
+            ranks[order[i]] = values[order[i]] == values[order[i - 1]] ? previous : previous + 1;
+        }
+
+        return ranks;
+    }
+
+    /**
+     * Values of the indexed columns, one array element per row. Rows are in id order.
+     */
+    private static class Rows {
+        int size;
+        int[] ids;
+        String[] sortNames;
+        String[] names;
+        String[] names2;
+        String[] types;
+        String[] areas;
+        String[] countries;
+        String[] froms;
+        int[] years;
+        int[] prices;
+        int[] volumes;
+        double[] alcohol;
+        boolean[] ecological;
+        boolean[] kosher;
+        int[] typeMasks;
+
+        Rows(int capacity) {
+            capacity = Math.max(1, capacity);
+
+            ids = new int[capacity];
+            sortNames = new String[capacity];
+            names = new String[capacity];
+            names2 = new String[capacity];
+            types = new String[capacity];
+            areas = new String[capacity];
+            countries = new String[capacity];
+            froms = new String[capacity];
+            years = new int[capacity];
+            prices = new int[capacity];
+            volumes = new int[capacity];
+            alcohol = new double[capacity];
+            ecological = new boolean[capacity];
+            kosher = new boolean[capacity];
+            typeMasks = new int[capacity];
+        }
+
+        static Rows read(ResultSet result) throws SQLException {
+            ItemDictionary dictionary = ItemDictionary.getShared();
+            Rows rows = new Rows(1024);
+
+            while (result.next()) {
+                int row = rows.next();
+
+                rows.ids[row] = result.getInt("ID");
+                rows.sortNames[row] = result.getString("NAME");
+                rows.names[row] = result.getString("NAME_LOWER");
+                rows.names2[row] = result.getString("NAME2_LOWER");
+                rows.types[row] = dictionary.get(result.getString("TYPE"));
+                rows.areas[row] = dictionary.get(result.getString("AREA_LOWER"));
+                rows.countries[row] = dictionary.get(result.getString("COUNTRY_LOWER"));
+                rows.froms[row] = result.getString("FROM_FULL");
+                rows.years[row] = getInt(result, "YEAR");
+                rows.prices[row] = getInt(result, "PRICE");
+                rows.volumes[row] = getInt(result, "VOLUME");
+                rows.alcohol[row] = result.getDouble("ALCOHOL");
+                rows.ecological[row] = result.getBoolean("ECOLOGICAL");
+                rows.kosher[row] = result.getBoolean("KOSHER");
+                rows.typeMasks[row] = result.getInt("TYPE_MASK");
+            }
+
+            return rows.trim();
+        }
+
+        /**
+         * Append a row of another set of rows.
+         */
+        void copy(Rows from, int row) {
+            int to = next();
+
+            ids[to] = from.ids[row];
+            sortNames[to] = from.sortNames[row];
+            names[to] = from.names[row];
+            names2[to] = from.names2[row];
+            types[to] = from.types[row];
+            areas[to] = from.areas[row];
+            countries[to] = from.countries[row];
+            froms[to] = from.froms[row];
+            years[to] = from.years[row];
+            prices[to] = from.prices[row];
+            volumes[to] = from.volumes[row];
+            alcohol[to] = from.alcohol[row];
+            ecological[to] = from.ecological[row];
+            kosher[to] = from.kosher[row];
+            typeMasks[to] = from.typeMasks[row];
+        }
+
+        /**
+         * Add an empty row, growing the arrays if they are full.
+         */
+        private int next() {
+            if (size == ids.length)
+                resize(Math.max(1, size * 2));
+
+            return size++;
+        }
+
+        /**
+         * Shrink the arrays to the number of rows.
+         */
+        Rows trim() {
+            if (size != ids.length)
+                resize(size);
+
+            return this;
+        }
+
+        private void resize(int capacity) {
+            ids = Arrays.copyOf(ids, capacity);
+            sortNames = Arrays.copyOf(sortNames, capacity);
+            names = Arrays.copyOf(names, capacity);
+            names2 = Arrays.copyOf(names2, capacity);
+            types = Arrays.copyOf(types, capacity);
+            areas = Arrays.copyOf(areas, capacity);
+            countries = Arrays.copyOf(countries, capacity);
+            froms = Arrays.copyOf(froms, capacity);
+            years = Arrays.copyOf(years, capacity);
+            prices = Arrays.copyOf(prices, capacity);
+            volumes = Arrays.copyOf(volumes, capacity);
+            alcohol = Arrays.copyOf(alcohol, capacity);
+            ecological = Arrays.copyOf(ecological, capacity);
+            kosher = Arrays.copyOf(kosher, capacity);
+            typeMasks = Arrays.copyOf(typeMasks, capacity);
+        }
+    }
+
+    /**
+     * Dictionary encoded text column. Each row stores the code of its value.
+     */
+    private static class Dictionary {
+        final List<String> values = new ArrayList<>();
+        final Map<String, Integer> lookup = new HashMap<>();
+        int[] codes = new int[1024];
+
+        void add(int row, String value) {
+            Integer code = lookup.get(value);
+            if (code == null) {
+                code = values.size();
+                values.add(value);
+                lookup.put(value, code);
+            }
+
+            if (row == codes.length)
+                codes = Arrays.copyOf(codes, codes.length * 2);
+
+            codes[row] = code;
+        }
+
+        /**
+         * Codes of all values matching the predicate. Null never matches.
+         */
+        BitSet match(Predicate<String> predicate) {
+            BitSet matching = new BitSet(values.size());
+            for (int code = 0; code < values.size(); code++) {
+                String value = values.get(code);
+                if (value != null && predicate.test(value))
+                    matching.set(code);
+            }
+
+            return matching;
+        }
+
+        /**
+         * Keep rows with a value matching the predicate.
+         */
+        void filter(BitSet matches, Predicate<String> predicate) {
+            BitSet matching = match(predicate);
+
+            for (int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1))
+                if (!matching.get(codes[i]))
+                    matches.clear(i);
+        }
+
+        int[] ranks(int size) {
+            int[] codeRanks = rank(values.toArray(new String[values.size()]));
+
+            int[] ranks = new int[size];
+            for (int i = 0; i < size; i++)
+                ranks[i] = codeRanks[codes[i]];
+
+            return ranks;
+        }
+
+        /**
+         * Replace all values with their lower case version. Codes are kept even if two values become equal.
+         */
+        void lowerCase() {
+            for (int code = 0; code < values.size(); code++) {
+                String value = values.get(code);
+                if (value != null)
+                    values.set(code, value.toLowerCase());
+            }
+
+            lookup.clear();
+        }
+    }
+}
@@ -26,6 +26,15 @@ public class WineResult {
     public final int totalPages;
     public final int winesPerPage;
 
+    // Sort key and id of the first and last wine, used to seek to the pages next to this one
+    public final Object firstKey;
+    public final Integer firstId;
+    public final Object lastKey;
+    public final Integer lastId;
+
+    // Order of the search that produced the result, 0 if not searched through the search scheduler
+    public final long sequence;
+
     public WineResult() {
         this(new ArrayList<>(), WineTableColumn.Id, true, 0);
     }
@@ -39,6 +48,16 @@ public class WineResult {
     }
 
     public WineResult(List<Wine> wines, WineTableColumn sortedBy, boolean ascending, double executionTime, int currentPage, int totalPages, int winesPerPage, int totalCount) {
+        this(wines, sortedBy, ascending, executionTime, currentPage, totalPages, winesPerPage, totalCount, null, null, null, null);
+    }
+
+    public WineResult(List<Wine> wines, WineTableColumn sortedBy, boolean ascending, double executionTime, int currentPage, int totalPages, int winesPerPage, int totalCount,
+                      Object firstKey, Integer firstId, Object lastKey, Integer lastId) {
+        this(wines, sortedBy, ascending, executionTime, currentPage, totalPages, winesPerPage, totalCount, firstKey, firstId, lastKey, lastId, 0);
+    }
+
+    private WineResult(List<Wine> wines, WineTableColumn sortedBy, boolean ascending, double executionTime, int currentPage, int totalPages, int winesPerPage, int totalCount,
+                       Object firstKey, Integer firstId, Object lastKey, Integer lastId, long sequence) {
         this.wines = wines;
         this.count = wines.size();
         this.totalCount = totalCount;
@@ -51,6 +70,23 @@ public class WineResult {
         this.currentPage = currentPage;
         this.totalPages = totalPages;
         this.winesPerPage = winesPerPage;
+
+        this.firstKey = firstKey;
+        this.firstId = firstId;
+        this.lastKey = lastKey;
+        this.lastId = lastId;
+
+        this.sequence = sequence;
+    }
+
+    /**
+     * Copy of the result with a search sequence number.
+     * @param sequence sequence number
+     * @return result
+     */
+    public WineResult withSequence(long sequence) {
+        return new WineResult(wines, sortedBy, ascending, executionTime, currentPage, totalPages, winesPerPage, totalCount,
+                              firstKey, firstId, lastKey, lastId, sequence);
     }
 
     private static List<Wine> asList(Wine... wines) {
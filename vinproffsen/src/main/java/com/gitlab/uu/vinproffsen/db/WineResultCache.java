@@ -0,0 +1,101 @@
+package com.gitlab.uu.vinproffsen.db;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of search result pages by search criteria. The least recently used pages are evicted when the cache holds more
+ * than the maximum number of pages or wines, the number of wines is what decides how much memory the cache uses.
+ *
+ * The cache has to be cleared when wines are added, changed or removed. Each clear starts a new version and pages read
+ * before the clear are not added, see {@link #getVersion()}. It is safe to use from several threads.
+ *
+ * @author Niklas Persson
+ * @version 2016-03-31
+ */
+public class WineResultCache {
+    private final Map<SearchCriteria, WineResult> results = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final int maxResults;
+    private final int maxWines;
+    private int wines;
+    private long version;
+
+    private long hits;
+    private long misses;
+
+    /**
+     * Create a cache.
+     * @param maxResults maximum number of pages, 0 disables the cache
+     * @param maxWines maximum number of wines in all pages
+     */
+    public WineResultCache(int maxResults, int maxWines) {
+        this.maxResults = Math.max(0, maxResults);
+        this.maxWines = Math.max(0, maxWines);
+    }
+
+    /**
+     * Get a cached page.
+     * @param criteria search criteria
+     * @return page or null if not cached
+     */
+    public synchronized WineResult get(SearchCriteria criteria) {
+        WineResult result = results.get(criteria);
+
+        if (result != null)
+            hits++;
+        else
+            misses++;
+
+        return result;
+    }
+
+    /**
+     * Get the current version, read it before searching and pass it to {@link #put(SearchCriteria, WineResult, long)}.
+     * @return version
+     */
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    /**
+     * Add a page to the cache, unless the cache was cleared since the search started.
+     * @param criteria search criteria
+     * @param result page
+     * @param version version when the search started
+     */
+    public synchronized void put(SearchCriteria criteria, WineResult result, long version) {
+        if (maxResults == 0 || result.count > maxWines || version != this.version) return;
+
+        WineResult old = results.put(criteria, result);
+        if (old != null)
+            wines -= old.count;
+
+        wines += result.count;
+
+        // evict least recently used pages
+        Iterator<WineResult> it = results.values().iterator();
+        while ((results.size() > maxResults || wines > maxWines) && it.hasNext()) {
+            wines -= it.next().count;
+            it.remove();
+        }
+    }
+
+    /**
+     * Remove all pages.
+     */
+    public synchronized void clear() {
+        results.clear();
+        wines = 0;
+        version++;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+}
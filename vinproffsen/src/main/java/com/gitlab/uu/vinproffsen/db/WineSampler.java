@@ -0,0 +1,69 @@
+package com.gitlab.uu.vinproffsen.db;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Draws random wines from a snapshot of the wine ids, used to pick the featured wine on the start screen. A pick is a
+ * random index into the id array, so picking a wine costs a single primary key lookup to read it.
+ *
+ * The sampler is a snapshot, it is never updated. Read a new sampler when the wines in the database change.
+ *
+ * @author Niklas Persson
+ * @version 2016-03-31
+ */
+public class WineSampler {
+    /**
+     * Columns needed to build the sampler.
+     */
+    public static final String QUERY = "SELECT ID FROM ITEMS ORDER BY ID";
+
+    private final int size;
+    private final int[] ids;
+
+    /**
+     * Read the sampler from the result of {@link #QUERY}.
+     * @param result result set
+     * @throws SQLException
+     */
+    public WineSampler(ResultSet result) throws SQLException {
+        int capacity = 1024;
+        int[] ids = new int[capacity];
+
+        int row = 0;
+        while (result.next()) {
+            if (row == capacity) {
+                capacity *= 2;
+                ids = Arrays.copyOf(ids, capacity);
+            }
+
+            ids[row] = result.getInt(1);
+
+            row++;
+        }
+
+        size = row;
+        this.ids = Arrays.copyOf(ids, size);
+    }
+
+    /**
+     * Get number of wines in the sampler.
+     * @return number of wines
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Pick a random wine, every wine with the same probability.
+     * @param random random generator
+     * @return wine id, or null if there are no wines
+     */
+    public Integer pick(Random random) {
+        if (size == 0) return null;
+
+        return ids[random.nextInt(size)];
+    }
+}
@@ -0,0 +1,45 @@
+package com.gitlab.uu.vinproffsen.db;
+
+import com.gitlab.uu.vinproffsen.exceptions.WineDatabaseException;
+import org.jooq.Condition;
+
+import java.util.BitSet;
+
+/**
+ * Backend for the free text wine search. Selected with <tt>db.search</tt> in vinproffsen.properties.
+ *
+ * @author Niklas Persson
+ * @version 2016-03-30
+ */
+public interface WineSearchBackend {
+    /**
+     * Find all wines matching every keyword.
+     * @param keywords lower case keywords
+     * @return ids of matching wines
+     * @throws WineDatabaseException
+     */
+    BitSet search(String[] keywords) throws WineDatabaseException;
+
+    /**
+     * Get a database condition matching the same wines as {@link #search(String[])}. Used instead of listing the ids
+     * of the matching wines in the query when there are many of them.
+     * @param keywords lower case keywords
+     * @return condition, or null if the LIKE search matches the same wines
+     */
+    default Condition getCondition(String[] keywords) {
+        return null;
+    }
+
+    /**
+     * Called when a wine was added to the database.
+     * @param id wine id
+     * @param fields lower case name, alternative name, type, area, country and year
+     */
+    void add(int id, String... fields);
+
+    /**
+     * Called when a wine was removed from the database.
+     * @param id wine id
+     */
+    void remove(int id);
+}
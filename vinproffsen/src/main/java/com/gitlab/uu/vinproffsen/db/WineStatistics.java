@@ -0,0 +1,178 @@
+package com.gitlab.uu.vinproffsen.db;
+
+import com.gitlab.uu.vinproffsen.items.storage.ItemType;
+import com.gitlab.uu.vinproffsen.items.storage.ItemTypes;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Wine counts for the start screen charts: all wines by country group and type, and ecological wines by type.
+ *
+ * The counts are read once from {@link #QUERY} which groups the wines by the country group and the wine type bits of
+ * the type mask stored with each wine, and are then kept up to date with {@link #add(String, ItemType, boolean, int)} as wines
+ * are added and removed. There is one counter for each combination of country group, type bits and ecological, so
+ * reading the counts doesn't depend on the number of wines. Counters can be updated from several threads.
+ *
+ * @author Niklas Persson
+ * @version 2016-03-31
+ */
+public class WineStatistics {
+    /**
+     * Country groups in chart order, all other countries are counted as the last group.
+     */
+    public static final String[] COUNTRIES = new String[] { "Frankrike", "Spanien", "Italien", "Övriga" };
+
+    /**
+     * Wine types in chart order.
+     */
+    public static final ItemTypes[] TYPES = new ItemTypes[] { ItemTypes.RedWine, ItemTypes.WhiteWine, ItemTypes.SparklingWine, ItemTypes.RoseWine };
+
+    /**
+     * Number of wines for each combination of country group, ecological and wine type bits.
+     */
+    public static final String QUERY = "SELECT COUNTRY_GROUP, ECOLOGICAL, BITAND(TYPE_MASK, 15), COUNT(*) FROM ITEMS "
+                                       + "GROUP BY COUNTRY_GROUP, ECOLOGICAL, BITAND(TYPE_MASK, 15)";
+
+    // [country][wine type bits][ecological]
+    private final LongAdder[][][] cells = new LongAdder[COUNTRIES.length][ItemType.WINE_TYPES + 1][2];
+
+    public WineStatistics() {
+        for (LongAdder[][] country : cells)
+            for (LongAdder[] flags : country)
+                for (int eco = 0; eco < flags.length; eco++)
+                    flags[eco] = new LongAdder();
+    }
+
+    /**
+     * Read the counts from the result of {@link #QUERY}.
+     * @param result result set
+     * @throws SQLException
+     */
+    public WineStatistics(ResultSet result) throws SQLException {
+        this();
+
+        while (result.next()) {
+            add(result.getString(1), result.getBoolean(2), result.getInt(3), result.getInt(4));
+        }
+    }
+
+    /**
+     * Add or remove a wine.
+     * @param country country, not the country group
+     * @param type wine type
+     * @param eco true if ecological
+     * @param count 1 to add the wine, -1 to remove it
+     */
+    public void add(String country, ItemType type, boolean eco, int count) {
+        add(countryGroup(country), eco, type.getMask(), count);
+    }
+
+    /**
+     * Add wines to the counts.
+     * @param country country group
+     * @param eco true if ecological
+     * @param typeMask type mask, only the wine type bits are used
+     * @param count number of wines
+     */
+    public void add(String country, boolean eco, int typeMask, int count) {
+        cells[countryIndex(country)][typeMask & ItemType.WINE_TYPES][eco ? 1 : 0].add(count);
+    }
+
+    /**
+     * Get the total number of wines.
+     * @return number of wines
+     */
+    public int getTotal() {
+        long total = 0;
+
+        for (LongAdder[][] country : cells)
+            for (LongAdder[] flags : country)
+                for (LongAdder cell : flags)
+                    total += cell.sum();
+
+        return (int) total;
+    }
+
+    /**
+     * Get the number of wines of a type from a country group.
+     * @param country country group
+     * @param type wine type
+     * @return number of wines
+     */
+    public int getCount(String country, ItemTypes type) {
+        int bit = type.mask;
+        if (bit == 0) return 0;
+
+        long count = 0;
+
+        LongAdder[][] countryCells = cells[countryIndex(country)];
+        for (int flags = 0; flags < countryCells.length; flags++) {
+            if ((flags & bit) != 0)
+                count += countryCells[flags][0].sum() + countryCells[flags][1].sum();
+        }
+
+        return (int) count;
+    }
+
+    /**
+     * Get the number of ecological wines with a main type. Each wine has one main type, wines without a known type
+     * are counted as {@link ItemTypes#Unknown}.
+     * @param type wine type
+     * @return number of wines
+     */
+    public int getEcologicalCount(ItemTypes type) {
+        long count = 0;
+
+        for (LongAdder[][] country : cells) {
+            for (int flags = 0; flags < country.length; flags++) {
+                if (mainType(flags) == type)
+                    count += country[flags][1].sum();
+            }
+        }
+
+        return (int) count;
+    }
+
+    /**
+     * Get the country group of a country, same as the COUNTRY_GROUP column.
+     * @param country country
+     * @return country group
+     */
+    public static String countryGroup(String country) {
+        if (country != null) {
+            for (int i = 0; i < COUNTRIES.length - 1; i++) {
+                if (country.contains(COUNTRIES[i]))
+                    return COUNTRIES[i];
+            }
+        }
+
+        return COUNTRIES[COUNTRIES.length - 1];
+    }
+
+    private static int countryIndex(String country) {
+        for (int i = 0; i < COUNTRIES.length - 1; i++) {
+            if (COUNTRIES[i].equals(country))
+                return i;
+        }
+
+        return COUNTRIES.length - 1;
+    }
+
+    /**
+     * Main type of a wine with several type words, rosé and sparkling go before red and white.
+     */
+    private static ItemTypes mainType(int flags) {
+        if ((flags & ItemType.ROSE) != 0)
+            return ItemTypes.RoseWine;
+        if ((flags & ItemType.SPARKLING) != 0)
+            return ItemTypes.SparklingWine;
+        if ((flags & ItemType.RED) != 0)
+            return ItemTypes.RedWine;
+        if ((flags & ItemType.WHITE) != 0)
+            return ItemTypes.WhiteWine;
+
+        return ItemTypes.Unknown;
+    }
+}
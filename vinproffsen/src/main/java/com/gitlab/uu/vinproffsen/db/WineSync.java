@@ -0,0 +1,253 @@
+package com.gitlab.uu.vinproffsen.db;
+
+import com.gitlab.uu.vinproffsen.exceptions.WineDatabaseException;
+import com.gitlab.uu.vinproffsen.items.storage.WineArticle;
+
+import java.sql.*;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * Incremental sync of the wines imported from Systembolaget, keyed on the Systembolaget article id.
+ *
+ * Wines in the new feed are compared to the stored rows by checksum: new articles are inserted, changed articles are
+ * updated and unchanged articles are skipped. When the sync is committed all imported wines that were not part of the
+ * feed are deleted. Wines without an article id (added by hand) are never touched. Everything happens in a single
+ * transaction on a separate connection.
+ *
+ * A database imported before article ids were stored has no article id on any wine. The sync then matches the feed
+ * against those wines by name, alternative name, price and volume, and a matching wine is updated with the values and
+ * article id from the feed instead of inserted again. Wines that don't match any wine in the feed can't be told apart
+ * from wines added by hand, so they are kept and left without an article id.
+ *
+ * @author Niklas Persson
+ * @version 2016-03-29
+ */
+public class WineSync implements WineWriter {
+    private final static Logger LOG = Logger.getLogger(WineSync.class.getName());
+
+    private final Connection connection;
+    private final int batchSize;
+
+    private final PreparedStatement insert;
+    private final PreparedStatement update;
+    private final PreparedStatement delete;
+
+    // article id -> {id, checksum} for all stored wines not yet seen in the feed
+    private final Map<Integer, int[]> stored = new HashMap<>();
+    private final Set<Integer> seen = new HashSet<>();
+
+    // ids of the wines in a database imported without article ids, by name, alternative name, price and volume
+    private final Map<List<Object>, Deque<Integer>> legacy = new HashMap<>();
+    private int legacyCount;
+
+    private int pendingInserts;
+    private int pendingUpdates;
+
+    private int inserted;
+    private int updated;
+    private int deleted;
+    private int unchanged;
+
+    private boolean committed;
+
+    /**
+     * Start a new sync.
+     * @param connection connection used only by this sync, closed by {@link #close()}
+     * @param batchSize number of rows per batch
+     * @throws WineDatabaseException
+     */
+    WineSync(Connection connection, int batchSize) throws WineDatabaseException {
+        this.connection = connection;
+        this.batchSize = Math.max(1, batchSize);
+
+        try {
+            connection.setAutoCommit(false);
+
+            try (Statement statement = connection.createStatement()) {
+                try (ResultSet result = statement.executeQuery("SELECT ID, ARTICLE_ID, ARTICLE_CHECKSUM FROM ITEMS WHERE ARTICLE_ID IS NOT NULL")) {
+                    while (result.next())
+                        stored.put(result.getInt(2), new int[] { result.getInt(1), result.getInt(3) });
+                }
+
+                if (stored.isEmpty()) {
+                    try (ResultSet result = statement.executeQuery("SELECT ID, NAME, NAME2, PRICE, VOLUME FROM ITEMS")) {
+                        while (result.next()) {
+                            List<Object> key = legacyKey(result.getString(2), result.getString(3),
+                                                         (Integer) result.getObject(4), (Integer) result.getObject(5));
+                            legacy.computeIfAbsent(key, k -> new ArrayDeque<>()).add(result.getInt(1));
+                            legacyCount++;
+                        }
+                    }
+                }
+            }
+
+            insert = connection.prepareStatement(H2WineDatabase.INSERT_QUERY);
+            update = connection.prepareStatement(H2WineDatabase.UPDATE_QUERY);
+            delete = connection.prepareStatement("DELETE FROM ITEMS WHERE ID = ?");
+        } catch (SQLException e) {
+            close();
+            throw new WineDatabaseException(e.getMessage());
+        }
+
+        if (legacy.isEmpty())
+            LOG.fine("Starting sync against " + stored.size() + " imported wines.");
+        else
+            LOG.info("No wine has an article id, matching " + legacyCount + " wines against the feed.");
+    }
+
+    /**
+     * Insert or update a wine if it is new or has changed.
+     * @param wine wine
+     * @throws WineDatabaseException
+     */
+    @Override
+    public void add(WineArticle wine) throws WineDatabaseException {
+        if (wine.articleId == null) {
+            LOG.warning("Ignoring wine without article id: " + wine.name);
+            return;
+        }
+
+        if (!seen.add(wine.articleId)) {
+            LOG.warning("Ignoring duplicate article id: " + wine.articleId);
+            return;
+        }
+
+        int[] row = stored.remove(wine.articleId);
+        boolean matchedLegacy = false;
+
+        // a wine imported before article ids were stored gets the article id of the matching wine in the feed
+        if (row == null && !legacy.isEmpty()) {
+            Deque<Integer> ids = legacy.get(legacyKey(wine.name.name, wine.name.alternativeName, wine.seller.price,
+                                                      wine.beverage.volume));
+            if (ids != null && !ids.isEmpty()) {
+                row = new int[] { ids.poll(), 0 };
+                matchedLegacy = true;
+                legacyCount--;
+            }
+        }
+
+        try {
+            if (row == null) {
+                H2WineDatabase.bindWine(insert, wine);
+                insert.addBatch();
+
+                if (++pendingInserts >= batchSize)
+                    flush();
+            } else if (matchedLegacy || row[1] != wine.checksum()) {
+                H2WineDatabase.bindWine(update, wine);
+                update.setInt(25, row[0]);
+                update.addBatch();
+
+                if (++pendingUpdates >= batchSize)
+                    flush();
+            } else {
+                unchanged++;
+            }
+        } catch (SQLException e) {
+            throw new WineDatabaseException(e.getMessage());
+        }
+    }
+
+    /**
+     * Delete all imported wines missing in the feed and commit the transaction. Wines of a database imported without
+     * article ids that didn't match the feed are kept.
+     * @return number of inserted, updated and deleted wines
+     * @throws WineDatabaseException
+     */
+    @Override
+    public int commit() throws WineDatabaseException {
+        flush();
+
+        try {
+            for (int[] row : stored.values()) {
+                delete.setInt(1, row[0]);
+                delete.addBatch();
+            }
+            delete.executeBatch();
+            deleted = stored.size();
+
+            connection.commit();
+        } catch (SQLException e) {
+            throw new WineDatabaseException(e.getMessage());
+        }
+
+        committed = true;
+
+        if (legacyCount > 0)
+            LOG.info("Kept " + legacyCount + " wines without article id that are not in the feed, re-import all wines to remove them.");
+
+        LOG.info("Synced wines. Inserted: " + inserted + ", updated: " + updated + ", deleted: " + deleted + " and unchanged: " + unchanged);
+
+        return inserted + updated + deleted;
+    }
+
+    public int getInserted() {
+        return inserted;
+    }
+
+    public int getUpdated() {
+        return updated;
+    }
+
+    public int getDeleted() {
+        return deleted;
+    }
+
+    public int getUnchanged() {
+        return unchanged;
+    }
+
+    /**
+     * Key a wine of a database imported without article ids is matched on.
+     */
+    private static List<Object> legacyKey(String name, String alternativeName, Integer price, Integer volume) {
+        return Arrays.asList(name, alternativeName, price, volume);
+    }
+
+    /**
+     * Send pending inserts and updates to the database.
+     * @throws WineDatabaseException
+     */
+    private void flush() throws WineDatabaseException {
+        try {
+            if (pendingInserts > 0) {
+                insert.executeBatch();
+                inserted += pendingInserts;
+                pendingInserts = 0;
+            }
+
+            if (pendingUpdates > 0) {
+                update.executeBatch();
+                updated += pendingUpdates;
+                pendingUpdates = 0;
+            }
+        } catch (SQLException e) {
+            throw new WineDatabaseException(e.getMessage());
+        }
+    }
+
+    /**
+     * Close statements and the connection. Rolls back the transaction if it wasn't committed.
+     */
+    @Override
+    public void close() {
+        try {
+            if (!committed) {
+                LOG.warning("Rolling back wine sync.");
+                connection.rollback();
+            }
+
+            connection.close();
+        } catch (SQLException e) {
+            LOG.warning(e.getMessage());
+        }
+    }
+}
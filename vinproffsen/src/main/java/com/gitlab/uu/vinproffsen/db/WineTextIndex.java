@@ -0,0 +1,263 @@
+package com.gitlab.uu.vinproffsen.db;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+
+/**
+ * Inverted trigram index for the free text search. Matches the same wines as searching for each keyword with
+ * <tt>LIKE '%keyword%'</tt> in name, alternative name, type, area, country and year.
+ *
+ * Every three character sequence in the searchable text of a wine maps to a sorted posting list of wine ids. A keyword
+ * is looked up by intersecting the posting lists of its trigrams, starting with the shortest, and the few remaining
+ * candidates are checked against the stored text since trigrams alone don't guarantee the keyword is in one piece.
+ * Keywords shorter than three characters have no trigrams and are checked against the text of the candidates from the
+ * other keywords, or against every wine if there are none.
+ *
+ * The index is updated with {@link #add(int, String...)} and {@link #remove(int)} and is safe to use from several
+ * threads.
+ *
+ * @author Niklas Persson
+ * @version 2016-03-30
+ */
+public class WineTextIndex implements WineSearchBackend {
+    /**
+     * Columns needed to build the index.
+     */
+    public static final String QUERY = "SELECT ID, NAME_LOWER, NAME2_LOWER, TYPE_LOWER, AREA_LOWER, COUNTRY_LOWER, YEAR FROM ITEMS";
+
+    // Separates fields in the stored text so no keyword or trigram matches across two fields
+    private static final char SEPARATOR = '\0';
+
+    private final Map<Integer, String> texts = new HashMap<>();
+    private final Map<Long, Postings> postings = new HashMap<>();
+
+    /**
+     * Build the index from the result of {@link #QUERY}.
+     * @param result result set
+     * @throws SQLException
+     */
+    public WineTextIndex(ResultSet result) throws SQLException {
+        while (result.next()) {
+            int year = result.getInt("YEAR");
+            String yearText = result.wasNull() ? null : String.valueOf(year);
+
+            add(result.getInt("ID"), result.getString("NAME_LOWER"), result.getString("NAME2_LOWER"),
+                result.getString("TYPE_LOWER"), result.getString("AREA_LOWER"), result.getString("COUNTRY_LOWER"), yearText);
+        }
+    }
+
+    /**
+     * Get number of wines in the index.
+     * @return number of wines
+     */
+    public synchronized int getSize() {
+        return texts.size();
+    }
+
+    /**
+     * Add a wine to the index, replacing it if it is already indexed.
+     * @param id wine id
+     * @param fields lower case searchable fields, null fields are skipped
+     */
+    @Override
+    public synchronized void add(int id, String... fields) {
+        remove(id);
+
+        StringBuilder sb = new StringBuilder();
+        for (String field : fields) {
+            if (field != null)
+                sb.append(field).append(SEPARATOR);
+        }
+
+        String text = sb.toString();
+        texts.put(id, text);
+
+        for (long trigram : trigrams(text))
+            postings.computeIfAbsent(trigram, key -> new Postings()).add(id);
+    }
+
+    /**
+     * Remove a wine from the index.
+     * @param id wine id
+     */
+    @Override
+    public synchronized void remove(int id) {
+        String text = texts.remove(id);
+        if (text == null) return;
+
+        for (long trigram : trigrams(text)) {
+            Postings list = postings.get(trigram);
+            if (list != null && list.remove(id) && list.size == 0)
+                postings.remove(trigram);
+        }
+    }
+
+    /**
+     * Find all wines where every keyword is part of one of the searchable fields.
+     * @param keywords lower case keywords
+     * @return ids of matching wines
+     */
+    @Override
+    public synchronized BitSet search(String[] keywords) {
+        // Look up the most selective keywords first, short keywords only filter the candidates
+        String[] sorted = keywords.clone();
+        Arrays.sort(sorted, Comparator.comparingInt(String::length).reversed());
+
+        int[] candidates = null;
+
+        for (String keyword : sorted) {
+            if (keyword.isEmpty()) continue;
+
+            if (candidates == null)
+                candidates = lookup(keyword);
+
+            candidates = verify(candidates, keyword);
+
+            if (candidates.length == 0) break;
+        }
+
+        BitSet ids = new BitSet();
+
+        if (candidates == null) {
+            // no keywords, everything matches
+            for (int id : texts.keySet())
+                ids.set(id);
+        } else {
+            for (int id : candidates)
+                ids.set(id);
+        }
+
+        return ids;
+    }
+
+    /**
+     * Find candidates for a keyword from the posting lists. Every wine containing the keyword is a candidate.
+     * @param keyword keyword
+     * @return candidate ids
+     */
+    private int[] lookup(String keyword) {
+        Set<Long> keys = trigrams(keyword);
+
+        if (keys.isEmpty())
+            return texts.keySet().stream().mapToInt(Integer::intValue).toArray();
+
+        List<Postings> lists = new ArrayList<>();
+        for (long key : keys) {
+            Postings list = postings.get(key);
+            if (list == null)
+                return new int[0];
+
+            lists.add(list);
+        }
+
+        lists.sort(Comparator.comparingInt(list -> list.size));
+
+        int[] result = Arrays.copyOf(lists.get(0).ids, lists.get(0).size);
+        for (int i = 1; i < lists.size() && result.length > 0; i++)
+            result = lists.get(i).intersect(result);
+
+        return result;
+    }
+
+    /**
+     * Keep the candidates that contain the keyword.
+     * @param candidates candidate ids
+     * @param keyword keyword
+     * @return matching ids
+     */
+    private int[] verify(int[] candidates, String keyword) {
+        int n = 0;
+        int[] result = new int[candidates.length];
+
+        for (int id : candidates) {
+            String text = texts.get(id);
+            if (text != null && text.contains(keyword))
+                result[n++] = id;
+        }
+
+        return Arrays.copyOf(result, n);
+    }
+
+    /**
+     * Get all distinct trigrams in a text. A trigram is three characters packed into a long.
+     * @param text text
+     * @return trigrams
+     */
+    private static Set<Long> trigrams(String text) {
+        Set<Long> trigrams = new HashSet<>();
+
+        for (int i = 0; i + 3 <= text.length(); i++) {
+            char a = text.charAt(i);
+            char b = text.charAt(i + 1);
+            char c = text.charAt(i + 2);
+
+            if (a == SEPARATOR || b == SEPARATOR || c == SEPARATOR) continue;
+
+            trigrams.add(((long) a << 32) | ((long) b << 16) | c);
+        }
+
+        return trigrams;
+    }
+
+    /**
+     * Sorted list of wine ids.
+     */
+    private static class Postings {
+        int[] ids = new int[4];
+        int size;
+
+        void add(int id) {
+            // ids are mostly added in increasing order
+            if (size > 0 && ids[size - 1] >= id) {
+                int index = Arrays.binarySearch(ids, 0, size, id);
+                if (index >= 0) return;
+
+                insert(-index - 1, id);
+            } else {
+                insert(size, id);
+            }
+        }
+
+        boolean remove(int id) {
+            int index = Arrays.binarySearch(ids, 0, size, id);
+            if (index < 0) return false;
+
+            System.arraycopy(ids, index + 1, ids, index, size - index - 1);
+            size--;
+
+            return true;
+        }
+
+        /**
+         * Intersect with a sorted array of ids.
+         */
+        int[] intersect(int[] other) {
+            int[] result = new int[Math.min(size, other.length)];
+            int n = 0;
+
+            for (int i = 0, j = 0; i < size && j < other.length; ) {
+                if (ids[i] < other[j]) {
+                    i++;
+                } else if (ids[i] > other[j]) {
+                    j++;
+                } else {
+                    result[n++] = ids[i];
+                    i++;
+                    j++;
+                }
+            }
+
+            return Arrays.copyOf(result, n);
+        }
+
+        private void insert(int index, int id) {
+            if (size == ids.length)
+                ids = Arrays.copyOf(ids, size * 2);
+
+            System.arraycopy(ids, index, ids, index + 1, size - index);
+            ids[index] = id;
+            size++;
+        }
+    }
+}
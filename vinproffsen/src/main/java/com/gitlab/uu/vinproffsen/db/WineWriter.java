@@ -0,0 +1,32 @@
+package com.gitlab.uu.vinproffsen.db;
+
+import com.gitlab.uu.vinproffsen.exceptions.WineDatabaseException;
+import com.gitlab.uu.vinproffsen.items.storage.WineArticle;
+
+/**
+ * Writes imported wines to the database in a single transaction.
+ *
+ * @author Niklas Persson
+ * @version 2016-03-29
+ */
+public interface WineWriter extends AutoCloseable {
+    /**
+     * Write a wine.
+     * @param wine wine
+     * @throws WineDatabaseException
+     */
+    void add(WineArticle wine) throws WineDatabaseException;
+
+    /**
+     * Commit the transaction.
+     * @return number of changed wines
+     * @throws WineDatabaseException
+     */
+    int commit() throws WineDatabaseException;
+
+    /**
+     * Release resources. Rolls back the transaction if it wasn't committed.
+     */
+    @Override
+    void close();
+}
@@ -9,72 +9,95 @@ import com.gitlab.uu.vinproffsen.items.storage.*;
  * @version 2016-03-12
  */
 public class Beverage extends Item {
-    protected BeverageDetails beverage;
+    protected int volume;
+    protected int pricePerLiter;
+    protected int deposit;
+    protected String packaging;
+    protected String seal;
+    protected double alcohol;
 
     public Beverage(int id, ItemName name, ItemType type, ItemSeller seller, ItemDetails details, BeverageDetails beverage) {
         super(id, name, type, seller, details);
 
-        this.beverage = beverage;
+        setBeverage(beverage);
     }
 
-    public Integer getVolume() {
-        return beverage.volume;
+    private void setBeverage(BeverageDetails beverage) {
+        if (beverage != null) {
+            this.volume = intValue(beverage.volume);
+            this.pricePerLiter = intValue(beverage.pricePerLiter);
+            this.deposit = intValue(beverage.deposit);
+            this.packaging = beverage.packaging;
+            this.seal = beverage.seal;
+            this.alcohol = (beverage.alcohol != null) ? beverage.alcohol : 0;
+        }
+    }
+
+    public int getVolume() {
+        return volume;
     }
 
-    public Integer getPricePerLiter() {
-        return beverage.pricePerLiter;
+    public int getPricePerLiter() {
+        loadDetails();
+        return pricePerLiter;
     }
 
-    public Integer getDeposit() {
-        return beverage.deposit;
+    public int getDeposit() {
+        loadDetails();
+        return deposit;
     }
 
     public String getPackaging() {
-        return beverage.packaging;
+        loadDetails();
+        return packaging;
     }
 
     public String getSeal() {
-        return beverage.seal;
+        loadDetails();
+        return seal;
     }
 
     public String getCountry() {
-        return seller.country;
+        return country;
     }
 
     public String getArea() {
-        return seller.area;
+        return area;
     }
 
     public String getProducer() {
-        return seller.producer;
+        loadDetails();
+        return producer;
     }
 
     public String getSupplier() {
-        return seller.supplier;
+        loadDetails();
+        return supplier;
     }
 
-    public Integer getYear() {
-        return seller.year;
+    public int getYear() {
+        return year;
     }
 
     public boolean isEcological() {
-        return details.ecological;
+        return ecological;
     }
 
     public boolean isKosher() {
-        return details.kosher;
+        return kosher;
     }
 
     public String getAssortment() {
-        return details.assortment;
+        loadDetails();
+        return assortment;
     }
 
-    public Double getAlcohol() {
-        return beverage.alcohol;
+    public double getAlcohol() {
+        return alcohol;
     }
 
     public boolean hasAlcohol() {
-        return beverage.alcohol > 0;
+        return alcohol > 0;
     }
 
     public String getFrom() {
@@ -82,12 +105,8 @@ public class Beverage extends Item {
     }
 
     public void updateInfo(int id, ItemName name, ItemType type, ItemSeller seller, ItemDetails details, BeverageDetails beverage) {
-        this.id = id;
-        this.name = name;
-        this.type = type;
-        this.seller = seller;
-        this.details = details;
-        this.beverage = beverage;
+        setInfo(id, name, type, seller, details);
+        setBeverage(beverage);
     }
 
     public static String getFullFrom(String country, String area) {
@@ -8,25 +8,71 @@ import com.gitlab.uu.vinproffsen.items.storage.ItemType;
 /**
  * Base class for all items. For now we are only interested in wines but can easily support other types later.
  *
- * Each item holds information in storage classes which allows us to create different items with less parameters.
+ * Each item is created from storage classes which allows us to create different items with less parameters. The values
+ * are copied into primitive fields so an item is a single object, which matters for results with thousands of wines.
+ * Missing numbers are stored as 0. Items created for a table page read their details on first access, see
+ * {@link WineDetailBatch}.
  *
  * @author Niklas Persson
- * @version 2016-03-12
+ * @version 2016-03-31
  */
 public abstract class Item {
     protected int id;
 
-    protected ItemName name;
+    protected String name;
+    protected String alternativeName;
     protected ItemType type;
-    protected ItemSeller seller;
-    protected ItemDetails details;
+
+    // Seller
+    protected String sellStart;
+    protected String area;
+    protected String country;
+    protected String producer;
+    protected String supplier;
+    protected int year;
+    protected int price;
+
+    // Details
+    protected boolean ecological;
+    protected boolean kosher;
+    protected String assortment;
+    protected String description;
+
+    // Reads the details on first access, null if the details have been read
+    volatile WineDetailBatch detailBatch;
 
     public Item(int id, ItemName name, ItemType type, ItemSeller seller, ItemDetails details) {
+        setInfo(id, name, type, seller, details);
+    }
+
+    /**
+     * Copy the values of the storage objects, null storage objects are skipped.
+     */
+    protected void setInfo(int id, ItemName name, ItemType type, ItemSeller seller, ItemDetails details) {
         this.id = id;
-        this.name = name;
         this.type = type;
-        this.seller = seller;
-        this.details = details;
+
+        if (name != null) {
+            this.name = name.name;
+            this.alternativeName = name.alternativeName;
+        }
+
+        if (seller != null) {
+            this.sellStart = seller.sellStart;
+            this.area = seller.area;
+            this.country = seller.country;
+            this.producer = seller.producer;
+            this.supplier = seller.supplier;
+            this.year = intValue(seller.year);
+            this.price = intValue(seller.price);
+        }
+
+        if (details != null) {
+            this.ecological = details.ecological != null && details.ecological;
+            this.kosher = details.kosher != null && details.kosher;
+            this.assortment = details.assortment;
+            this.description = details.description;
+        }
     }
 
     public int getId() {
@@ -34,15 +80,15 @@ public abstract class Item {
     }
 
     public ItemName getFullName() {
-        return name;
+        return new ItemName(name, alternativeName);
     }
 
     public String getName() {
-        return name.name;
+        return name;
     }
 
     public String getAlternativeName() {
-        return name.alternativeName;
+        return alternativeName;
     }
 
     public ItemType getType() {
@@ -50,14 +96,31 @@ public abstract class Item {
     }
 
     public int getPrice() {
-        return seller.price;
+        return price;
     }
 
     public String getDescription() {
-        return details.description;
+        loadDetails();
+        return description;
     }
 
     public String getSellStart() {
-        return seller.sellStart;
+        loadDetails();
+        return sellStart;
+    }
+
+    /**
+     * Read the details if the item was created without them. This may run a query, the getters of the details call it
+     * so call it first from a background thread if the details are read in the UI.
+     * @return true if the item has its details, false if they couldn't be read
+     */
+    public boolean loadDetails() {
+        WineDetailBatch batch = detailBatch;
+
+        return batch == null || batch.load();
+    }
+
+    protected static int intValue(Integer value) {
+        return (value != null) ? value : 0;
     }
 }
@@ -0,0 +1,70 @@
+package com.gitlab.uu.vinproffsen.items;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Shared instances of the wine attributes that repeat across many wines, such as country, area, producer, supplier,
+ * assortment and packaging. There are a few hundred distinct values among all wines, so every wine created from the
+ * database or an import uses the same string objects as the other wines with the same values instead of its own
+ * copies. Types are shared by {@link com.gitlab.uu.vinproffsen.items.storage.ItemType#of(String)}.
+ *
+ * The dictionary is bounded: once it holds the maximum number of values new values are returned as they are, so
+ * attributes that turn out to be unique can't fill the memory. Values are never removed. Safe to use from several
+ * threads.
+ *
+ * @author Niklas Persson
+ * @version 2016-03-31
+ */
+public class ItemDictionary {
+    private static final int MAX_SIZE = 16384;
+
+    private static final ItemDictionary SHARED = new ItemDictionary(MAX_SIZE);
+
+    private final int maxSize;
+    private final Map<String, String> strings = new ConcurrentHashMap<>();
+
+    /**
+     * Create a dictionary.
+     * @param maxSize maximum number of strings
+     */
+    public ItemDictionary(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Get the dictionary used by {@link ItemFactory} and the wine import.
+     * @return shared dictionary
+     */
+    public static ItemDictionary getShared() {
+        return SHARED;
+    }
+
+    /**
+     * Get the shared instance of a string.
+     * @param value string
+     * @return equal string from the dictionary, or the value itself if it is new and the dictionary is full
+     */
+    public String get(String value) {
+        if (value == null) return null;
+
+        String shared = strings.get(value);
+        if (shared != null)
+            return shared;
+
+        if (size() >= maxSize)
+            return value;
+
+        shared = strings.putIfAbsent(value, value);
+
+        return (shared != null) ? shared : value;
+    }
+
+    /**
+     * Get the number of strings in the dictionary.
+     * @return number of strings
+     */
+    public int size() {
+        return strings.size();
+    }
+}
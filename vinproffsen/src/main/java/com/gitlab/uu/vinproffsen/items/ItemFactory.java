@@ -16,51 +16,105 @@ public class ItemFactory {
     private static final Logger LOG = Logger.getLogger(ItemFactory.class.getName());
 
     /**
-     * Create an item from the first result of an SQL query.
+     * Columns shown in the wine table, enough to create a wine without details.
+     */
+    public static final String[] TABLE_COLUMNS = new String[] { "ID", "NAME", "NAME2", "TYPE", "TYPE_MASK", "AREA", "COUNTRY",
+                                                                "FROM_FULL", "YEAR", "PRICE", "VOLUME", "ALCOHOL",
+                                                                "ECOLOGICAL", "KOSHER" };
+
+    /**
+     * Detail columns read by {@link #readDetails(Wine, ResultSet)}.
+     */
+    public static final String[] DETAIL_COLUMNS = new String[] { "ID", "SELL_START", "PRODUCER", "SUPPLIER", "ASSORTMENT",
+                                                                 "DESCRIPTION", "PRICE_PER_LITER", "DEPOSIT", "PACKAGING",
+                                                                 "SEAL" };
+
+    /**
+     * Create an item from the first result of an SQL query with all columns. Repeated attributes are shared through
+     * the {@link ItemDictionary}.
      * @param res ResultSet with data
      * @return Item
      */
     public static Wine createWine(ResultSet res) {
+        Wine wine = createWine(res, null);
+
+        try {
+            if (wine != null)
+                readDetails(wine, res);
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+
+        return wine;
+    }
+
+    /**
+     * Create an item from the {@link #TABLE_COLUMNS} of the current row. The details are read by the batch when they
+     * are first needed.
+     * @param res ResultSet with data
+     * @param batch batch that reads the details, or null to leave them empty
+     * @return Item
+     */
+    public static Wine createWine(ResultSet res, WineDetailBatch batch) {
+        ItemDictionary dictionary = ItemDictionary.getShared();
+
         try {
             int id = res.getInt("ID");
 
             ItemName name = new ItemName(res.getString("NAME"), res.getString("NAME2"));
 
             String typeText = res.getString("TYPE");
-            ItemType type = new ItemType(typeText);
+            int typeMask = res.getInt("TYPE_MASK");
+            ItemType type = res.wasNull() ? ItemType.of(typeText) : ItemType.of(typeText, typeMask);
 
-            String sellStart = res.getString("SELL_START");
-            String area = res.getString("AREA");
-            String country = res.getString("COUNTRY");
-            String producer = res.getString("PRODUCER");
-            String supplier = res.getString("SUPPLIER");
+            String area = dictionary.get(res.getString("AREA"));
+            String country = dictionary.get(res.getString("COUNTRY"));
 
             int year = res.getInt("YEAR");
             int price = res.getInt("PRICE");
 
-            ItemSeller seller = new ItemSeller(sellStart, area, country, producer, supplier, year, price);
+            ItemSeller seller = new ItemSeller(null, area, country, null, null, year, price);
 
             boolean ecological = res.getBoolean("ECOLOGICAL");
             boolean kosher = res.getBoolean("KOSHER");
-            String assortment = res.getString("ASSORTMENT");
-            String description = res.getString("DESCRIPTION");
 
-            ItemDetails details = new ItemDetails(ecological, kosher, assortment, description);
+            ItemDetails details = new ItemDetails(ecological, kosher, null, null);
 
             int volume = res.getInt("VOLUME");
-            int pricePerLiter = res.getInt("PRICE");
-            int deposit = res.getInt("DEPOSIT");
-            String packaging = res.getString("ASSORTMENT");
-            String seal = res.getString("DESCRIPTION");
             double alcohol = res.getDouble("ALCOHOL");
 
-            BeverageDetails bevDetails = new BeverageDetails(volume, pricePerLiter, deposit, packaging, seal, alcohol);
+            BeverageDetails bevDetails = new BeverageDetails(volume, null, null, null, null, alcohol);
+
+            Wine wine = new Wine(id, name, type, seller, details, bevDetails);
+
+            if (batch != null)
+                batch.add(wine);
 
-            return new Wine(id, name, type, seller, details, bevDetails);
+            return wine;
         } catch (SQLException e) {
             e.printStackTrace();
         }
 
         return null;
     }
+
+    /**
+     * Read the {@link #DETAIL_COLUMNS} of the current row into a wine.
+     * @param wine wine
+     * @param res ResultSet with data
+     * @throws SQLException
+     */
+    static void readDetails(Wine wine, ResultSet res) throws SQLException {
+        ItemDictionary dictionary = ItemDictionary.getShared();
+
+        wine.sellStart = dictionary.get(res.getString("SELL_START"));
+        wine.producer = dictionary.get(res.getString("PRODUCER"));
+        wine.supplier = dictionary.get(res.getString("SUPPLIER"));
+        wine.assortment = dictionary.get(res.getString("ASSORTMENT"));
+        wine.description = res.getString("DESCRIPTION");
+        wine.pricePerLiter = res.getInt("PRICE_PER_LITER");
+        wine.deposit = res.getInt("DEPOSIT");
+        wine.packaging = dictionary.get(res.getString("PACKAGING"));
+        wine.seal = dictionary.get(res.getString("SEAL"));
+    }
 }
@@ -0,0 +1,104 @@
+package com.gitlab.uu.vinproffsen.items;
+
+import com.gitlab.uu.vinproffsen.exceptions.WineDatabaseException;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Wines created from the table columns only ({@link ItemFactory#TABLE_COLUMNS}), with the detail columns read when one
+ * of the wines needs them. The first access to a detail of any wine in the batch reads the details of all wines in the
+ * batch with one query by id, so opening a wine or exporting a list costs one query per batch instead of one per wine.
+ *
+ * The query runs in the thread that first reads a detail, so read the details with {@link Item#loadDetails()} in a
+ * background thread before showing them in the UI. If the query fails the wines stay in the batch and the next access
+ * tries again, check the result of {@link Item#loadDetails()} to not show a wine without its details.
+ *
+ * @author Niklas Persson
+ * @version 2016-03-31
+ */
+public class WineDetailBatch {
+    private final static Logger LOG = Logger.getLogger(WineDetailBatch.class.getName());
+
+    /**
+     * Maximum number of wines in a batch, larger results are split into several batches.
+     */
+    public static final int MAX_SIZE = 500;
+
+    /**
+     * Reads the details of wines.
+     */
+    @FunctionalInterface
+    public interface Loader {
+        /**
+         * Read the {@link ItemFactory#DETAIL_COLUMNS} of the wines and pass each row to {@link #read(ResultSet)}.
+         * @param batch batch to read the rows into
+         * @param ids wine ids
+         * @throws WineDatabaseException
+         */
+        void load(WineDetailBatch batch, List<Integer> ids) throws WineDatabaseException;
+    }
+
+    private final Loader loader;
+    private final Map<Integer, Wine> wines = new HashMap<>();
+
+    public WineDetailBatch(Loader loader) {
+        this.loader = loader;
+    }
+
+    /**
+     * Check if the batch has room for more wines.
+     * @return true if full
+     */
+    public boolean isFull() {
+        return wines.size() >= MAX_SIZE;
+    }
+
+    /**
+     * Add a wine created without details.
+     * @param wine wine
+     */
+    synchronized void add(Wine wine) {
+        wines.put(wine.getId(), wine);
+        wine.detailBatch = this;
+    }
+
+    /**
+     * Read the details of all wines in the batch, unless they have already been read.
+     * @return true if the details have been read, false if the query failed
+     */
+    synchronized boolean load() {
+        if (wines.isEmpty()) return true;
+
+        try {
+            loader.load(this, new ArrayList<>(wines.keySet()));
+        } catch (WineDatabaseException e) {
+            LOG.warning("Unable to read wine details: " + e.getMessage());
+            return false;
+        }
+
+        // wines that were removed from the database keep the details they were created with
+        for (Wine wine : wines.values())
+            wine.detailBatch = null;
+
+        wines.clear();
+
+        return true;
+    }
+
+    /**
+     * Read the details of one wine.
+     * @param row result set positioned at a row with the detail columns
+     * @throws SQLException
+     */
+    public void read(ResultSet row) throws SQLException {
+        Wine wine = wines.get(row.getInt("ID"));
+        if (wine != null)
+            ItemFactory.readDetails(wine, row);
+    }
+}
@@ -1,41 +1,165 @@
 package com.gitlab.uu.vinproffsen.items.storage;
 
-import java.util.EnumSet;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Type of an item, the text from Systembolaget and a bitmask with the wine types and sweetness words in the text. The
+ * mask is stored in the database so type filters and charts can use bitwise predicates instead of matching text.
+ *
+ * Types are immutable and created with {@link #of(String)}, which classifies each distinct type text once and then
+ * returns the same instance. There are only a few dozen types, so creating wines does no type classification.
+ */
 public class ItemType {
+    // Wine types
+    public static final int RED = 1;
+    public static final int WHITE = 2;
+    public static final int SPARKLING = 4;
+    public static final int ROSE = 8;
+    public static final int WINE_TYPES = RED | WHITE | SPARKLING | ROSE;
+
+    // Sweetness
+    public static final int DRY = 16;
+    public static final int MEDIUM_DRY = 32;
+    public static final int SWEET = 64;
+    public static final int MEDIUM_SWEET = 128;
+
+    // Words in the type text for each flag, in the same order as the bits
+    private static final String[] WORDS = new String[] { "rött", "vitt", "mousserande", "rosé", "torrt", "halvtorrt", "sött", "halvsött" };
+
+    // Shared types by text, texts beyond the limit get their own instance
+    private static final int MAX_CACHED = 1024;
+    private static final Map<String, ItemType> TYPES = new ConcurrentHashMap<>();
+    private static final ItemType NONE = new ItemType(null, 0);
+
     public final String text;
 
-    private final EnumSet<ItemTypes> types;
+    private final int mask;
 
-    public ItemType(String text) {
+    private ItemType(String text, int mask) {
         this.text = text;
+        this.mask = mask;
+    }
+
+    /**
+     * Get the type of a type text.
+     * @param text type text
+     * @return shared type
+     */
+    public static ItemType of(String text) {
+        if (text == null) return NONE;
+
+        ItemType type = TYPES.get(text);
+        if (type != null)
+            return type;
+
+        return cache(new ItemType(text, mask(text)));
+    }
+
+    /**
+     * Get the type of a type text with an already calculated mask, for example read from the database.
+     * @param text type text
+     * @param mask mask from {@link #mask(String)}
+     * @return shared type
+     */
+    public static ItemType of(String text, int mask) {
+        if (text == null) return (mask == 0) ? NONE : new ItemType(null, mask);
 
-        Set<ItemTypes> itemSet = new HashSet<>();
-        String lower = text.toLowerCase().trim();
+        ItemType type = TYPES.get(text);
+        if (type != null && type.mask == mask)
+            return type;
+
+        return cache(new ItemType(text, mask));
+    }
 
-        if (lower.contains("mousserande"))
-            itemSet.add(ItemTypes.SparklingWine);
-        if (lower.contains("rött"))
-            itemSet.add(ItemTypes.RedWine);
-        if (lower.contains("vitt"))
-            itemSet.add(ItemTypes.WhiteWine);
-        if (lower.contains("rosé"))
-            itemSet.add(ItemTypes.RoseWine);
+    private static ItemType cache(ItemType type) {
+        if (TYPES.size() >= MAX_CACHED)
+            return type;
 
-        if (itemSet.isEmpty())
-            itemSet.add(ItemTypes.Unknown);
+        ItemType shared = TYPES.putIfAbsent(type.text, type);
 
-        types = EnumSet.copyOf(itemSet);
+        return (shared != null && shared.mask == type.mask) ? shared : type;
+    }
+
+    /**
+     * Calculate the type mask of a type text. A flag is set if its word is part of the text, so "Halvtorrt vitt vin"
+     * is both {@link #DRY} and {@link #MEDIUM_DRY}.
+     * @param text type text
+     * @return type mask
+     */
+    public static int mask(String text) {
+        if (text == null) return 0;
+
+        String lower = text.toLowerCase();
+        int mask = 0;
+
+        for (int i = 0; i < WORDS.length; i++) {
+            if (lower.contains(WORDS[i]))
+                mask |= 1 << i;
+        }
+
+        return mask;
+    }
+
+    /**
+     * Get the flag matching a type filter such as "Rött vin" or "mousserande", used to filter types with a bitwise
+     * predicate.
+     * @param filter type filter
+     * @return flag, or 0 if the filter is not a single type or sweetness word
+     */
+    public static int filterMask(String filter) {
+        if (filter == null) return 0;
+
+        String lower = filter.toLowerCase().trim();
+        if (lower.endsWith(" vin"))
+            lower = lower.substring(0, lower.length() - 4).trim();
+
+        for (int i = 0; i < WORDS.length; i++) {
+            if (WORDS[i].equals(lower))
+                return 1 << i;
+        }
+
+        return 0;
+    }
+
+    /**
+     * Check if the type matches a type filter, with the same rules as the type filter of a wine search: single type
+     * and sweetness words match the mask, other filters have to be part of the text.
+     * @param filter type filter
+     * @return true if matching
+     */
+    public boolean matches(String filter) {
+        int filterMask = filterMask(filter);
+
+        if (filterMask != 0)
+            return (mask & filterMask) != 0;
+
+        return text != null && text.toLowerCase().contains(filter.toLowerCase());
+    }
+
+    public int getMask() {
+        return mask;
     }
 
     public boolean isType(ItemTypes type) {
-        return types.contains(type);
+        return isType(mask, type);
+    }
+
+    /**
+     * Check if a type mask has a type, wines without any wine type are {@link ItemTypes#Unknown}.
+     * @param mask type mask
+     * @param type item type
+     * @return true if the mask has the type
+     */
+    public static boolean isType(int mask, ItemTypes type) {
+        if (type == ItemTypes.Unknown)
+            return (mask & WINE_TYPES) == 0;
+
+        return (mask & type.mask) != 0;
     }
 
     public boolean isWine() {
-        return isType(ItemTypes.RedWine) || isType(ItemTypes.WhiteWine) || isType(ItemTypes.SparklingWine) || isType(ItemTypes.RoseWine);
+        return (mask & WINE_TYPES) != 0;
     }
 
     @Override
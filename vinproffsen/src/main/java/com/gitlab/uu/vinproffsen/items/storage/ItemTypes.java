@@ -1,12 +1,21 @@
 package com.gitlab.uu.vinproffsen.items.storage;
 
 /**
- * Different item types.
+ * Different item types. Each type except {@link #Unknown} has its own bit in the type mask of an {@link ItemType}.
  */
 public enum ItemTypes {
-    RedWine,
-    WhiteWine,
-    SparklingWine,
-    RoseWine,
-    Unknown
+    RedWine(ItemType.RED),
+    WhiteWine(ItemType.WHITE),
+    SparklingWine(ItemType.SPARKLING),
+    RoseWine(ItemType.ROSE),
+    Unknown(0);
+
+    /**
+     * Bit of the type in the type mask, 0 for unknown.
+     */
+    public final int mask;
+
+    ItemTypes(int mask) {
+        this.mask = mask;
+    }
 }
@@ -0,0 +1,42 @@
+package com.gitlab.uu.vinproffsen.items.storage;
+
+import java.util.Arrays;
+
+/**
+ * Storage class. Holds a wine converted from an article in the Systembolaget XML file, ready to be added to the
+ * database.
+ *
+ * @author Niklas Persson
+ * @version 2016-03-29
+ */
+public class WineArticle {
+    public final Integer articleId; // Artikelid from Systembolaget, null if added by hand
+
+    public final ItemName name;
+    public final ItemType type;
+    public final ItemSeller seller;
+    public final ItemDetails details;
+    public final BeverageDetails beverage;
+
+    public WineArticle(Integer articleId, ItemName name, ItemType type, ItemSeller seller, ItemDetails details, BeverageDetails beverage) {
+        this.articleId = articleId;
+        this.name = name;
+        this.type = type;
+        this.seller = seller;
+        this.details = details;
+        this.beverage = beverage;
+    }
+
+    /**
+     * Checksum of all stored values. Used to find articles that changed since the last import.
+     * @return checksum
+     */
+    public int checksum() {
+        return Arrays.hashCode(new Object[] {
+                name.name, name.alternativeName, type.text,
+                seller.sellStart, seller.area, seller.country, seller.producer, seller.supplier, seller.year, seller.price,
+                details.ecological, details.kosher, details.assortment, details.description,
+                beverage.volume, beverage.pricePerLiter, beverage.deposit, beverage.packaging, beverage.seal, beverage.alcohol
+        });
+    }
+}
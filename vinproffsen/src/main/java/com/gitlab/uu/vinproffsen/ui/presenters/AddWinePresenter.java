@@ -73,7 +73,7 @@ public class AddWinePresenter extends Presenter<WineModel, AddWineView> {
         }
 
         ItemName name = new ItemName(nameText, "");
-        ItemType type = new ItemType(typeText);
+        ItemType type = ItemType.of(typeText);
         ItemSeller seller = new ItemSeller(null, areaText, countryText, null, null, yearNum, priceNum);
         ItemDetails details = new ItemDetails(ecoCheck, kosherCheck, null, null);
         BeverageDetails bevDetails = new BeverageDetails(volume, null, null, null, null, alcohol);
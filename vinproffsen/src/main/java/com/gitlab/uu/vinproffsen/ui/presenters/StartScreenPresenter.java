@@ -3,13 +3,12 @@ package com.gitlab.uu.vinproffsen.ui.presenters;
 import com.gitlab.uu.mvp.Application;
 import com.gitlab.uu.mvp.Presenter;
 import com.gitlab.uu.vinproffsen.WineModel;
-import com.gitlab.uu.vinproffsen.exceptions.WineDatabaseException;
+import com.gitlab.uu.vinproffsen.db.WineStatistics;
 import com.gitlab.uu.vinproffsen.items.Item;
 import com.gitlab.uu.vinproffsen.items.Wine;
+import com.gitlab.uu.vinproffsen.items.storage.ItemTypes;
 import com.gitlab.uu.vinproffsen.ui.views.StartScreenView;
 
-import java.sql.ResultSet;
-import java.sql.SQLException;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -26,6 +25,10 @@ public class StartScreenPresenter extends Presenter<WineModel, StartScreenView>
         super(application, view, model);
 
         listen("wine:update:charts", (o) -> updateCharts());
+        listen("wine:bulk:added", (o) -> {
+            if (model.isLoaded())
+                updateCharts();
+        });
         listen("wine:update:random", (o) -> randomizeWine());
     }
 
@@ -42,93 +45,40 @@ public class StartScreenPresenter extends Presenter<WineModel, StartScreenView>
     private void updateCharts() {
         view.getChartsPanel().removeAll();
 
-        countAllWines();
-        countEcoWines();
+        WineStatistics statistics = model.getStatistics();
+
+        countAllWines(statistics);
+        countEcoWines(statistics);
     }
 
     /**
      * Count wines and sort them by country and type.
      */
-    private void countAllWines() {
+    private void countAllWines(WineStatistics statistics) {
         Map<String, Map<String, Integer>> wineCount = new LinkedHashMap<>();
 
-        for (String country : new String[] {"Frankrike", "Spanien", "Italien", "Övriga"}) {
-            if (!wineCount.containsKey(country)) {
-                Map<String, Integer> typeMap = new HashMap<>();
-                typeMap.put("Rött", 0);
-                typeMap.put("Vitt", 0);
-                typeMap.put("Mousserande", 0);
-                typeMap.put("Rosé", 0);
-
-                wineCount.put(country, typeMap);
-            }
-        }
-
-        int count = 0;
-
-        try {
-            ResultSet resultSet = model.execute("select * from items");
-
-            while (resultSet.next()) {
-                String type = resultSet.getString("type");
-                String country = resultSet.getString("country");
-
-                if (!(country.contains("Frankrike") || country.contains("Italien") || country.contains("Spanien")))
-                    country = "Övriga";
+        for (String country : WineStatistics.COUNTRIES) {
+            Map<String, Integer> typeMap = new HashMap<>();
+            typeMap.put("Rött", statistics.getCount(country, ItemTypes.RedWine));
+            typeMap.put("Vitt", statistics.getCount(country, ItemTypes.WhiteWine));
+            typeMap.put("Mousserande", statistics.getCount(country, ItemTypes.SparklingWine));
+            typeMap.put("Rosé", statistics.getCount(country, ItemTypes.RoseWine));
 
-                Map<String, Integer> types = wineCount.get(country);
-
-                if (type.toLowerCase().contains("rött"))
-                    types.put("Rött", types.get("Rött") + 1);
-                if (type.toLowerCase().contains("rosé"))
-                    types.put("Rosé", types.get("Rosé") + 1);
-                if (type.toLowerCase().contains("vitt"))
-                    types.put("Vitt", types.get("Vitt") + 1);
-                if (type.toLowerCase().contains("mousserande"))
-                    types.put("Mousserande", types.get("Mousserande") + 1);
-
-                count++;
-            }
-        } catch (SQLException | WineDatabaseException e) {
-            return;
+            wineCount.put(country, typeMap);
         }
 
-        view.updateWineCountChart(count, wineCount);
+        view.updateWineCountChart(statistics.getTotal(), wineCount);
     }
 
     /**
      * Count ecological wines.
      */
-    private void countEcoWines() {
-        int whiteCount = 0;
-        int redCount = 0;
-        int sparklingCount = 0;
-        int roseCount = 0;
-        int unknownCount = 0;
-
-        try {
-            ResultSet resultSet = model.execute("select * from items where ecological = 1");
-
-            while (resultSet.next()) {
-                String type = resultSet.getString("type");
-
-                if (type.toLowerCase().contains("rosé")) {
-                    roseCount++;
-                } else if (type.toLowerCase().contains("mousserande")) {
-                    sparklingCount++;
-                } else if (type.toLowerCase().contains("rött")) {
-                    redCount++;
-                } else if (type.toLowerCase().contains("vitt")) {
-                    whiteCount++;
-                } else {
-                    unknownCount++;
-                }
-            }
-
-            // notify view
-            view.updateEcoWineChart(redCount, whiteCount, sparklingCount, roseCount, unknownCount);
-        } catch (SQLException | WineDatabaseException e) {
-            e.printStackTrace();
-        }
+    private void countEcoWines(WineStatistics statistics) {
+        // notify view
+        view.updateEcoWineChart(statistics.getEcologicalCount(ItemTypes.RedWine),
+                                statistics.getEcologicalCount(ItemTypes.WhiteWine),
+                                statistics.getEcologicalCount(ItemTypes.SparklingWine),
+                                statistics.getEcologicalCount(ItemTypes.RoseWine),
+                                statistics.getEcologicalCount(ItemTypes.Unknown));
     }
 }
@@ -2,6 +2,8 @@ package com.gitlab.uu.vinproffsen.ui.presenters;
 
 import com.gitlab.uu.mvp.Application;
 import com.gitlab.uu.vinproffsen.WineModel;
+import com.gitlab.uu.vinproffsen.db.WineFacets;
+import com.gitlab.uu.vinproffsen.db.WineFacets.Facet;
 import com.gitlab.uu.vinproffsen.items.Wine;
 import com.gitlab.uu.vinproffsen.ui.ComboBoxItem;
 import com.gitlab.uu.vinproffsen.ui.WineDialog;
@@ -28,6 +30,12 @@ public class WineTablePresenter extends TablePresenter<WineModel, WineTableView>
         super(application, view, model);
 
         listen("wine:update:table", o -> searchWines(true));
+        listen("wine:bulk:added", o -> {
+            if (model.isLoaded())
+                searchWines(true);
+        });
+
+        listen("wine:db:facets", facets -> updateFacetCounts((WineFacets) facets));
 
         listen("wine:remove", wines -> {
             model.remove((java.util.List<Wine>) wines);
@@ -42,12 +50,25 @@ public class WineTablePresenter extends TablePresenter<WineModel, WineTableView>
     public void searchWines(boolean resetPage) {
         view.setTableLoading(true);
 
-        if (resetPage)
+        if (resetPage) {
+            // the search has changed, don't page from the previous result
+            view.getTable().clearResult();
             view.getTable().setPage(1);
+        }
+
+        // counts of the previous search no longer match, they are counted again when a filter list opens
+        view.setFacetCounts(Collections.emptyMap());
 
         send("wine:db:search", view);
     }
 
+    /**
+     * Count the wines of each filter value for the current search, called when a filter list is opened.
+     */
+    public void countFacets() {
+        send("wine:db:facets:count", view);
+    }
+
     /**
      * User clicked table header.
      */
@@ -84,8 +105,15 @@ public class WineTablePresenter extends TablePresenter<WineModel, WineTableView>
 
             int row = table.rowAtPoint(e.getPoint());
             Wine wine = tableModel.getWine(row);
-
-            new WineDialog(wine, view);
+            if (wine == null) return;
+
+            // read the details before opening the dialog so the query doesn't run in the event dispatch thread
+            model.loadDetails(wine, loaded -> SwingUtilities.invokeLater(() -> {
+                if (loaded)
+                    new WineDialog(wine, view);
+                else
+                    send("wine:status:right", "Kunde inte läsa vinets detaljer, försök igen.");
+            }));
         }
     }
 
@@ -126,7 +154,7 @@ public class WineTablePresenter extends TablePresenter<WineModel, WineTableView>
      */
     public DefaultComboBoxModel<ComboBoxItem> getWineTypes() {
         List<String> rawTypes = model.getWineTypes();
-        List<String> types = new ArrayList<>();
+        Set<String> types = new TreeSet<>();
 
         Set<String> ignore = new HashSet<>();
         ignore.add("Mousserande vin");
@@ -144,25 +172,43 @@ public class WineTablePresenter extends TablePresenter<WineModel, WineTableView>
         types.add("Halvtorrt");
 
         for (String type : rawTypes) {
-            if (ignore.contains(type)) continue;
-
-            if (!types.contains(type))
+            if (!ignore.contains(type))
                 types.add(type);
         }
 
-        Collections.sort(types);
-
-        types.add(0, "Rött vin");
-        types.add(1, "Vitt vin");
-        types.add(2, "Mousserande");
-        types.add(3, "Rosé");
-
         DefaultComboBoxModel<ComboBoxItem> items = new DefaultComboBoxModel<>();
 
         items.addElement(new ComboBoxItem(null, "Vintyper"));
+        for (String type : new String[] { "Rött vin", "Vitt vin", "Mousserande", "Rosé" })
+            items.addElement(new ComboBoxItem(type, type));
         for (String type : types)
             items.addElement(new ComboBoxItem(type, type));
 
         return items;
     }
+
+    /**
+     * Show the number of wines each filter value would give with the current search.
+     * @param facets counts of the current search
+     */
+    private void updateFacetCounts(WineFacets facets) {
+        Map<Facet, Map<String, Integer>> counts = new EnumMap<>(Facet.class);
+        counts.put(Facet.Country, countItems(facets, Facet.Country, view.getCountryItems()));
+        counts.put(Facet.Area, countItems(facets, Facet.Area, view.getAreaItems()));
+        counts.put(Facet.Type, countItems(facets, Facet.Type, view.getTypeItems()));
+
+        view.setFacetCounts(counts);
+    }
+
+    private Map<String, Integer> countItems(WineFacets facets, Facet facet, ComboBoxModel<ComboBoxItem> items) {
+        Map<String, Integer> counts = new HashMap<>();
+
+        for (int i = 0; i < items.getSize(); i++) {
+            String id = items.getElementAt(i).id;
+            if (id != null)
+                counts.put(id, facets.getCount(facet, id));
+        }
+
+        return counts;
+    }
 }
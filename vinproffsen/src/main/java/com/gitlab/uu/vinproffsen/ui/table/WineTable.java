@@ -167,6 +167,14 @@ public class WineTable extends JPanel {
         return listModel.getCurrentPage();
     }
 
+    public WineResult getResult() {
+        return listModel.getResult();
+    }
+
+    public void clearResult() {
+        listModel.clearResult();
+    }
+
     /**
      * Update wine list of table.
      * @param result result
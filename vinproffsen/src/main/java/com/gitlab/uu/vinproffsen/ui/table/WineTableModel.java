@@ -39,6 +39,8 @@ public class WineTableModel extends AbstractTableModel {
     private int totalPages;
     private int totalCount;
 
+    private WineResult result;
+
     public WineTableModel(View view) {
         this.view = view;
 
@@ -85,6 +87,21 @@ public class WineTableModel extends AbstractTableModel {
         return totalCount;
     }
 
+    /**
+     * Get the result shown in the table.
+     * @return result or null
+     */
+    public WineResult getResult() {
+        return result;
+    }
+
+    /**
+     * Forget the shown result so the next search doesn't continue from it.
+     */
+    public void clearResult() {
+        result = null;
+    }
+
     /**
      * Set current page to page.
      * @param page new page
@@ -198,7 +215,8 @@ public class WineTableModel extends AbstractTableModel {
      * @param result wines
      */
     public void setWines(WineResult result) {
-        wines = result.wines;
+        this.result = result;
+        wines = new ArrayList<>(result.wines);
 
         if (wines.isEmpty()) {
             wines.add(null);
@@ -3,14 +3,19 @@ package com.gitlab.uu.vinproffsen.ui.views;
 import com.gitlab.uu.mvp.Application;
 import com.gitlab.uu.mvp.View;
 import com.gitlab.uu.vinproffsen.WineModel;
+import com.gitlab.uu.vinproffsen.db.WineFacets.Facet;
 import com.gitlab.uu.vinproffsen.db.WineResult;
 import com.gitlab.uu.vinproffsen.items.Wine;
 import com.gitlab.uu.vinproffsen.ui.ComboBoxItem;
 import com.gitlab.uu.vinproffsen.ui.presenters.WineTablePresenter;
 import com.gitlab.uu.vinproffsen.ui.table.WineTable;
 
+import javax.accessibility.Accessible;
 import javax.imageio.ImageIO;
 import javax.swing.*;
+import javax.swing.event.PopupMenuEvent;
+import javax.swing.event.PopupMenuListener;
+import javax.swing.plaf.basic.ComboPopup;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.KeyAdapter;
@@ -19,7 +24,9 @@ import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -59,6 +66,12 @@ public class WineTableView extends View<WineModel, WineTablePresenter> {
     private ImageIcon loadingIcon;
     private ImageIcon blankIcon;
 
+    // Sequence number of the shown search result
+    private volatile long lastSequence;
+
+    // Number of wines for each filter value with the current search, shown in the combo box lists
+    private volatile Map<Facet, Map<String, Integer>> facetCounts = Collections.emptyMap();
+
     public WineTableView(Application application, WineModel model) {
         super(application, model);
 
@@ -113,8 +126,16 @@ public class WineTableView extends View<WineModel, WineTablePresenter> {
             loadingIcon = new ImageIcon(iconURL);
         }
 
-        listen("wine:db:result", result -> {
-            wineTable.setWines((WineResult) result);
+        listen("wine:db:result", o -> {
+            WineResult result = (WineResult) o;
+
+            // ignore results of older searches that arrive late, results that aren't from a search have no sequence
+            if (result.sequence != 0) {
+                if (result.sequence < lastSequence) return;
+                lastSequence = result.sequence;
+            }
+
+            wineTable.setWines(result);
             setTableLoading(false);
         });
     }
@@ -178,6 +199,45 @@ public class WineTableView extends View<WineModel, WineTablePresenter> {
         return checkKosher.isSelected();
     }
 
+    public ComboBoxModel<ComboBoxItem> getCountryItems() {
+        return listCountries.getModel();
+    }
+
+    public ComboBoxModel<ComboBoxItem> getAreaItems() {
+        return listAreas.getModel();
+    }
+
+    public ComboBoxModel<ComboBoxItem> getTypeItems() {
+        return listTypes.getModel();
+    }
+
+    /**
+     * Set the number of wines for each filter value, shown next to the values in the combo box lists.
+     * @param counts counts by filter and value id
+     */
+    public void setFacetCounts(Map<Facet, Map<String, Integer>> counts) {
+        facetCounts = counts;
+
+        SwingUtilities.invokeLater(() -> {
+            repaintList(listCountries);
+            repaintList(listAreas);
+            repaintList(listTypes);
+        });
+    }
+
+    /**
+     * Repaint a combo box and its list if it is open, since the counts usually arrive after the list was opened.
+     */
+    private static void repaintList(JComboBox<ComboBoxItem> box) {
+        box.repaint();
+
+        if (box.isPopupVisible()) {
+            Accessible popup = box.getUI().getAccessibleChild(box, 0);
+            if (popup instanceof ComboPopup)
+                ((ComboPopup) popup).getList().repaint();
+        }
+    }
+
     public ComboBoxItem getSelectedCountry() {
         return (ComboBoxItem) listCountries.getSelectedItem();
     }
@@ -333,21 +393,52 @@ public class WineTableView extends View<WineModel, WineTablePresenter> {
     }
 
     private JComboBox<ComboBoxItem> createCountriesList() {
-        return createComboBox(presenter.getCountries());
+        return createComboBox(presenter.getCountries(), Facet.Country);
     }
 
     private JComboBox<ComboBoxItem> createAreasList() {
-        return createComboBox(presenter.getAreas());
+        return createComboBox(presenter.getAreas(), Facet.Area);
     }
 
     private JComboBox<ComboBoxItem> createWineTypeList() {
-        return createComboBox(presenter.getWineTypes());
+        return createComboBox(presenter.getWineTypes(), Facet.Type);
     }
 
-    private JComboBox<ComboBoxItem> createComboBox(DefaultComboBoxModel<ComboBoxItem> model) {
+    private JComboBox<ComboBoxItem> createComboBox(DefaultComboBoxModel<ComboBoxItem> model, Facet facet) {
         JComboBox<ComboBoxItem> box = new JComboBox<>(model);
         box.addActionListener(e -> presenter.searchWines(true));
 
+        // count the wines of each value only when the list is shown
+        box.addPopupMenuListener(new PopupMenuListener() {
+            @Override
+            public void popupMenuWillBecomeVisible(PopupMenuEvent e) {
+                presenter.countFacets();
+            }
+
+            @Override
+            public void popupMenuWillBecomeInvisible(PopupMenuEvent e) {}
+
+            @Override
+            public void popupMenuCanceled(PopupMenuEvent e) {}
+        });
+
+        // show the number of matching wines after each value in the list
+        box.setRenderer(new DefaultListCellRenderer() {
+            @Override
+            public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean isSelected, boolean cellHasFocus) {
+                super.getListCellRendererComponent(list, value, index, isSelected, cellHasFocus);
+
+                Map<String, Integer> counts = facetCounts.get(facet);
+                if (index >= 0 && value instanceof ComboBoxItem && counts != null) {
+                    Integer count = counts.get(((ComboBoxItem) value).id);
+                    if (count != null)
+                        setText(value + " (" + count + ")");
+                }
+
+                return this;
+            }
+        });
+
         return box;
     }
 
@@ -22,6 +22,8 @@ CREATE TABLE IF NOT EXISTS PUBLIC.items
     seal VARCHAR(255),
     alcohol DOUBLE,
     from_full VARCHAR(255),
+    article_id INT,
+    article_checksum INT,
 
     name_lower VARCHAR(255) AS LOWER(name),
     name2_lower VARCHAR(255) AS LOWER(name2),
@@ -38,4 +40,35 @@ CREATE INDEX IF NOT EXISTS type_lower_idx ON ITEMS(type_lower);
 CREATE INDEX IF NOT EXISTS area_lower_idx ON ITEMS(area_lower);
 CREATE INDEX IF NOT EXISTS country_lower_idx ON ITEMS(country_lower);
 CREATE INDEX IF NOT EXISTS producer_lower_idx ON ITEMS(producer_lower);
-CREATE INDEX IF NOT EXISTS supplier_lower_idx ON ITEMS(supplier_lower);
\ No newline at end of file
+CREATE INDEX IF NOT EXISTS supplier_lower_idx ON ITEMS(supplier_lower);
+
+-- Databases created before wines were synced by article id
+ALTER TABLE ITEMS ADD COLUMN IF NOT EXISTS article_id INT;
+ALTER TABLE ITEMS ADD COLUMN IF NOT EXISTS article_checksum INT;
+CREATE INDEX IF NOT EXISTS article_id_idx ON ITEMS(article_id);
+
+CREATE TABLE IF NOT EXISTS PUBLIC.meta
+(
+    meta_key VARCHAR(255) PRIMARY KEY,
+    meta_value VARCHAR(255)
+);
+-- Indexes for the table sort orders, the id makes each position unique so pages can seek from the previous page
+CREATE INDEX IF NOT EXISTS name_id_idx ON ITEMS(name, id);
+CREATE INDEX IF NOT EXISTS type_id_idx ON ITEMS(type, id);
+CREATE INDEX IF NOT EXISTS price_id_idx ON ITEMS(price, id);
+CREATE INDEX IF NOT EXISTS volume_id_idx ON ITEMS(volume, id);
+CREATE INDEX IF NOT EXISTS year_id_idx ON ITEMS(year, id);
+CREATE INDEX IF NOT EXISTS from_full_id_idx ON ITEMS(from_full, id);
+CREATE INDEX IF NOT EXISTS alcohol_id_idx ON ITEMS(alcohol, id);
+
+-- Country group used by the start screen charts, computed when a wine is stored
+ALTER TABLE ITEMS ADD COLUMN IF NOT EXISTS country_group VARCHAR(20) AS CASE WHEN LOCATE('Frankrike', country) > 0 THEN 'Frankrike' WHEN LOCATE('Spanien', country) > 0 THEN 'Spanien' WHEN LOCATE('Italien', country) > 0 THEN 'Italien' ELSE 'Övriga' END;
+
+-- Bitmask of the wine types and sweetness in the type, see ItemType. Set when a wine is stored, filled in here for
+-- wines stored before the column existed
+ALTER TABLE ITEMS ADD COLUMN IF NOT EXISTS type_mask INT;
+UPDATE ITEMS SET type_mask = CASEWHEN(LOCATE('rött', LOWER(type)) > 0, 1, 0) + CASEWHEN(LOCATE('vitt', LOWER(type)) > 0, 2, 0)
+    + CASEWHEN(LOCATE('mousserande', LOWER(type)) > 0, 4, 0) + CASEWHEN(LOCATE('rosé', LOWER(type)) > 0, 8, 0)
+    + CASEWHEN(LOCATE('torrt', LOWER(type)) > 0, 16, 0) + CASEWHEN(LOCATE('halvtorrt', LOWER(type)) > 0, 32, 0)
+    + CASEWHEN(LOCATE('sött', LOWER(type)) > 0, 64, 0) + CASEWHEN(LOCATE('halvsött', LOWER(type)) > 0, 128, 0)
+    WHERE type_mask IS NULL;
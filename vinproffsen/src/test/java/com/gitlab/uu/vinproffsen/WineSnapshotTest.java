@@ -0,0 +1,149 @@
+package com.gitlab.uu.vinproffsen;
+
+import com.gitlab.uu.vinproffsen.db.WineWriter;
+import com.gitlab.uu.vinproffsen.items.storage.*;
+import junit.framework.TestCase;
+
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests for {@link WineSnapshot}.
+ *
+ * @author Niklas Persson
+ * @version 2016-03-31
+ */
+public class WineSnapshotTest extends TestCase {
+    private static final long CHECKSUM = 1234;
+    private static final int MAX_PRICE = 50000;
+
+    private Path dir;
+    private Path file;
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = Files.createTempDirectory("snapshot");
+        file = dir.resolve("wines.snapshot");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(dir);
+    }
+
+    public void testReadsSavedWines() throws Exception {
+        save(3);
+
+        List<WineArticle> wines = new ArrayList<>();
+        assertEquals(3, WineSnapshot.read(file, CHECKSUM, MAX_PRICE, collect(wines)));
+
+        assertEquals(3, wines.size());
+        for (int i = 0; i < 3; i++)
+            assertEquals(wine(i).checksum(), wines.get(i).checksum());
+
+        assertEquals(Integer.valueOf(2), wines.get(2).articleId);
+        assertNull(wines.get(0).name.alternativeName);
+    }
+
+    public void testIgnoresSnapshotOfOtherFileOrMaxPrice() throws Exception {
+        save(3);
+
+        List<WineArticle> wines = new ArrayList<>();
+        assertEquals(-1, WineSnapshot.read(file, CHECKSUM + 1, MAX_PRICE, collect(wines)));
+        assertEquals(-1, WineSnapshot.read(file, CHECKSUM, MAX_PRICE / 2, collect(wines)));
+
+        assertTrue(wines.isEmpty());
+        assertTrue(Files.exists(file));
+    }
+
+    public void testRejectsTruncatedSnapshot() throws Exception {
+        save(50);
+
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.setLength(raf.length() - 10);
+        }
+
+        List<WineArticle> wines = new ArrayList<>();
+        assertEquals(-1, WineSnapshot.read(file, CHECKSUM, MAX_PRICE, collect(wines)));
+
+        assertTrue(wines.isEmpty());
+        assertFalse(Files.exists(file));
+    }
+
+    public void testRejectsCorruptColumn() throws Exception {
+        save(50);
+
+        // overwrite the length of the first name with a length past the end of the column
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.seek(28);
+            int articleIdColumn = raf.readInt();
+            raf.seek(28 + 4 + articleIdColumn + 4);
+            raf.writeInt(Integer.MAX_VALUE);
+        }
+
+        List<WineArticle> wines = new ArrayList<>();
+        assertEquals(-1, WineSnapshot.read(file, CHECKSUM, MAX_PRICE, collect(wines)));
+
+        assertTrue(wines.isEmpty());
+        assertFalse(Files.exists(file));
+    }
+
+    public void testRejectsCorruptLastWine() throws Exception {
+        save(50);
+
+        // the wines before the corrupt one have already been passed on, the caller rolls them back
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.seek(28);
+            int articleIdColumn = raf.readInt();
+
+            long lastName = 28 + 4 + articleIdColumn + 4;
+            for (int i = 0; i < 49; i++)
+                lastName += 4 + ("Vin " + i).length();
+
+            raf.seek(lastName);
+            raf.writeInt(Integer.MAX_VALUE);
+        }
+
+        List<WineArticle> wines = new ArrayList<>();
+        assertEquals(-1, WineSnapshot.read(file, CHECKSUM, MAX_PRICE, collect(wines)));
+
+        assertEquals(49, wines.size());
+        assertFalse(Files.exists(file));
+    }
+
+    private void save(int count) throws Exception {
+        WineSnapshot snapshot = new WineSnapshot();
+        for (int i = 0; i < count; i++)
+            snapshot.add(wine(i));
+
+        snapshot.save(file, CHECKSUM, MAX_PRICE);
+    }
+
+    private static WineArticle wine(int i) {
+        return new WineArticle(i, new ItemName("Vin " + i, (i % 2 == 0) ? null : "Reserva"), ItemType.of("Rött vin"),
+                               new ItemSeller("2016-01-01", "Rioja", "Spanien", "Bodega", "Leverantör", 2010 + i % 5, 9900 + i),
+                               new ItemDetails(i % 3 == 0, false, "FS", "Tempranillo"),
+                               new BeverageDetails(750, 13200 + i, 0, "Flaska", "Kork", 0.135));
+    }
+
+    private static WineWriter collect(List<WineArticle> wines) {
+        return new WineWriter() {
+            @Override
+            public void add(WineArticle wine) {
+                wines.add(wine);
+            }
+
+            @Override
+            public int commit() {
+                return wines.size();
+            }
+
+            @Override
+            public void close() {}
+        };
+    }
+}
@@ -0,0 +1,53 @@
+package com.gitlab.uu.vinproffsen.db;
+
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Result sets over rows in memory for testing classes that read query results.
+ *
+ * @author Niklas Persson
+ * @version 2016-03-31
+ */
+class ResultSets {
+    /**
+     * Create a forward only result set. Supports next, wasNull and the getters by column name or index.
+     * @param columns column names
+     * @param rows values of each row in column order
+     * @return result set
+     */
+    static ResultSet of(String[] columns, Object[]... rows) {
+        List<String> names = Arrays.asList(columns);
+        int[] row = { -1 };
+        Object[] last = new Object[1];
+
+        return (ResultSet) Proxy.newProxyInstance(ResultSets.class.getClassLoader(), new Class[] { ResultSet.class }, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "next":
+                    return ++row[0] < rows.length;
+                case "wasNull":
+                    return last[0] == null;
+                case "close":
+                    return null;
+            }
+
+            if (!method.getName().startsWith("get") || args == null || args.length != 1)
+                throw new UnsupportedOperationException(method.getName());
+
+            int column = (args[0] instanceof String) ? names.indexOf(((String) args[0]).toUpperCase()) : (Integer) args[0] - 1;
+            if (column < 0)
+                throw new IllegalArgumentException("Unknown column: " + args[0]);
+
+            Object value = rows[row[0]][column];
+            last[0] = value;
+
+            Class<?> type = method.getReturnType();
+            if (value != null)
+                return (type == int.class) ? ((Number) value).intValue() : (type == double.class) ? ((Number) value).doubleValue() : value;
+
+            return (type == int.class) ? 0 : (type == double.class) ? 0d : (type == boolean.class) ? false : null;
+        });
+    }
+}
@@ -0,0 +1,134 @@
+package com.gitlab.uu.vinproffsen.db;
+
+import com.gitlab.uu.vinproffsen.items.storage.ItemType;
+import com.gitlab.uu.vinproffsen.ui.table.WineTableColumn;
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Tests for {@link WineIndex}.
+ *
+ * @author Niklas Persson
+ * @version 2016-03-31
+ */
+public class WineIndexTest extends TestCase {
+    private static final String[] COLUMNS = { "ID", "NAME", "NAME_LOWER", "NAME2_LOWER", "TYPE", "AREA_LOWER", "COUNTRY_LOWER",
+                                              "FROM_FULL", "YEAR", "PRICE", "VOLUME", "ALCOHOL", "ECOLOGICAL", "KOSHER", "TYPE_MASK" };
+
+    private WineIndex index;
+
+    @Override
+    protected void setUp() throws Exception {
+        index = new WineIndex(ResultSets.of(COLUMNS,
+                row(1, "Château Margaux", null, "Rött vin", "bordeaux", "frankrike", 2010, 15000, 750, 0.135, false, false),
+                row(2, "Barolo", "Riserva", "Rött vin", "piemonte", "italien", 2012, 25000, 750, 0.14, true, false),
+                row(3, "Chablis", null, "Vitt vin, Torrt", "bourgogne", "frankrike", 2014, 15000, 750, 0.125, false, true),
+                row(4, "Cava Brut", null, "Mousserande vin, Vitt Torrt", "penedès", "spanien", null, 8000, 750, 0.115, true, false),
+                row(5, "Bag in box", null, "Rött vin", null, "spanien", 2015, 20000, 3000, 0.13, false, false)));
+    }
+
+    public void testSize() {
+        assertEquals(5, index.getSize());
+    }
+
+    public void testFiltersMatchLikeTheDatabase() {
+        assertIds(search(null, null, 10000d, 20000d, null, null, false, false, null, null), 1, 3, 5);
+        // wines without a year never match a year filter
+        assertIds(search(null, null, null, null, 2012, null, false, false, null, null), 2, 3, 5);
+        assertIds(search(null, null, null, null, null, null, true, false, null, null), 2, 4);
+        assertIds(search(null, null, null, null, null, null, false, true, null, null), 3);
+        assertIds(search(null, null, null, null, null, null, false, false, null, "frankrike"), 1, 3);
+        assertIds(search(null, null, null, null, null, null, false, false, "bordeaux", null), 1);
+        // max below min only uses min
+        assertIds(search(null, null, 20000d, 100d, null, null, false, false, null, null), 2, 5);
+    }
+
+    public void testTypeFilters() {
+        assertIds(search(null, "rött vin", null, null, null, null, false, false, null, null), 1, 2, 5);
+        assertIds(search(null, "rosé", null, null, null, null, false, false, null, null));
+        assertIds(search(null, "vitt", null, null, null, null, false, false, null, null), 3, 4);
+        assertIds(search(null, "torrt", null, null, null, null, false, false, null, null), 3, 4);
+        assertIds(search(null, "mousserande", null, null, null, null, false, false, null, null), 4);
+        // not a single type word, matched against the type text
+        assertIds(search(null, "vin, vitt", null, null, null, null, false, false, null, null), 4);
+    }
+
+    public void testKeywordsMatchAnySearchableColumn() {
+        assertIds(search(new String[] { "riserva" }, null, null, null, null, null, false, false, null, null), 2);
+        assertIds(search(new String[] { "spanien" }, null, null, null, null, null, false, false, null, null), 4, 5);
+        assertIds(search(new String[] { "2014" }, null, null, null, null, null, false, false, null, null), 3);
+        assertIds(search(new String[] { "rött", "frankrike" }, null, null, null, null, null, false, false, null, null), 1);
+        assertIds(search(new String[] { "nothing" }, null, null, null, null, null, false, false, null, null));
+    }
+
+    public void testSearchAmongIds() {
+        BitSet ids = new BitSet();
+        ids.set(2);
+        ids.set(5);
+
+        assertIds(index.search(ids, null, null, null, null, null, null, false, false, null, null, WineTableColumn.Id, true), 2, 5);
+    }
+
+    public void testSortOrdersEqualValuesById() {
+        assertIds(sort(WineTableColumn.Price, true), 4, 1, 3, 5, 2);
+        assertIds(sort(WineTableColumn.FullName, true), 5, 2, 4, 3, 1);
+        // id in the same direction as the sort column like in the database
+        assertIds(sort(WineTableColumn.Price, false), 2, 5, 3, 1, 4);
+        assertIds(sort(WineTableColumn.Volume, false), 5, 4, 3, 2, 1);
+        assertIds(sort(WineTableColumn.Kosher, false), 3, 5, 4, 2, 1);
+        // nulls first like in the database
+        assertIds(sort(WineTableColumn.Year, true), 4, 1, 2, 3, 5);
+    }
+
+    public void testWithAddsAndReplacesWines() throws Exception {
+        WineIndex updated = index.with(new WineIndex(ResultSets.of(COLUMNS,
+                row(3, "Chablis", null, "Vitt vin, Torrt", "bourgogne", "frankrike", 2014, 30000, 750, 0.125, false, true),
+                row(6, "Rioja", null, "Rött vin", "rioja", "spanien", 2011, 12000, 750, 0.135, false, false))));
+
+        assertEquals(6, updated.getSize());
+        assertIds(updated.search(null, null, null, null, null, null, null, false, false, null, null, WineTableColumn.Price, true),
+                  4, 6, 1, 5, 2, 3);
+        assertIds(updated.search(null, null, "rött vin", null, null, null, null, false, false, null, null, WineTableColumn.Id, true),
+                  1, 2, 5, 6);
+
+        // the original index is not changed
+        assertEquals(5, index.getSize());
+        assertIds(sort(WineTableColumn.Price, true), 4, 1, 3, 5, 2);
+    }
+
+    public void testWithoutRemovesWines() {
+        WineIndex updated = index.without(Arrays.asList(1, 3));
+
+        assertEquals(3, updated.getSize());
+        assertIds(updated.search(null, null, null, null, null, null, null, false, false, null, null, WineTableColumn.Price, false),
+                  2, 5, 4);
+        assertIds(updated.search(null, new String[] { "frankrike" }, null, null, null, null, null, false, false, null, null,
+                                 WineTableColumn.Id, true));
+
+        assertEquals(5, index.getSize());
+    }
+
+    private int[] search(String[] keywords, String type, Double minPrice, Double maxPrice, Integer minYear, Integer maxYear,
+                         boolean ecological, boolean kosher, String area, String country) {
+        return index.search(null, keywords, type, minPrice, maxPrice, minYear, maxYear, ecological, kosher, area, country,
+                            WineTableColumn.Id, true);
+    }
+
+    private int[] sort(WineTableColumn sortBy, boolean ascending) {
+        return index.search(null, null, null, null, null, null, null, false, false, null, null, sortBy, ascending);
+    }
+
+    private static void assertIds(int[] actual, int... expected) {
+        assertEquals(Arrays.toString(expected), Arrays.toString(actual));
+    }
+
+    private static Object[] row(int id, String name, String name2, String type, String area, String country, Integer year,
+                                int price, int volume, double alcohol, boolean ecological, boolean kosher) {
+        String from = (area != null) ? area + ", " + country : country;
+
+        return new Object[] { id, name, name.toLowerCase(), (name2 != null) ? name2.toLowerCase() : null, type, area, country,
+                              from, year, price, volume, alcohol, ecological, kosher, ItemType.of(type).getMask() };
+    }
+}
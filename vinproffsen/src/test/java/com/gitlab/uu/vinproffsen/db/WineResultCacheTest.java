@@ -0,0 +1,83 @@
+package com.gitlab.uu.vinproffsen.db;
+
+import com.gitlab.uu.vinproffsen.items.Wine;
+import com.gitlab.uu.vinproffsen.ui.table.WineTableColumn;
+import junit.framework.TestCase;
+
+import java.util.Collections;
+
+/**
+ * Tests for {@link WineResultCache} and the {@link SearchCriteria} it is keyed by.
+ *
+ * @author Niklas Persson
+ * @version 2016-03-31
+ */
+public class WineResultCacheTest extends TestCase {
+    public void testEqualSearchesShareAPage() {
+        WineResultCache cache = new WineResultCache(10, 100);
+        WineResult result = result(5);
+
+        cache.put(criteria("Rött  Frankrike", 1), result, cache.getVersion());
+
+        assertSame(result, cache.get(criteria("frankrike rött", 1)));
+        assertNull(cache.get(criteria("frankrike rött", 2)));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    public void testEvictsLeastRecentlyUsedPages() {
+        WineResultCache cache = new WineResultCache(2, 100);
+
+        cache.put(criteria("a", 1), result(1), cache.getVersion());
+        cache.put(criteria("b", 1), result(1), cache.getVersion());
+        cache.get(criteria("a", 1));
+        cache.put(criteria("c", 1), result(1), cache.getVersion());
+
+        assertNotNull(cache.get(criteria("a", 1)));
+        assertNull(cache.get(criteria("b", 1)));
+        assertNotNull(cache.get(criteria("c", 1)));
+    }
+
+    public void testEvictsPagesToStayBelowMaxWines() {
+        WineResultCache cache = new WineResultCache(10, 10);
+
+        cache.put(criteria("a", 1), result(6), cache.getVersion());
+        cache.put(criteria("b", 1), result(6), cache.getVersion());
+        cache.put(criteria("c", 1), result(11), cache.getVersion());
+
+        assertNull(cache.get(criteria("a", 1)));
+        assertNotNull(cache.get(criteria("b", 1)));
+        assertNull(cache.get(criteria("c", 1)));
+    }
+
+    public void testIgnoresPagesReadBeforeClear() {
+        WineResultCache cache = new WineResultCache(10, 100);
+
+        long version = cache.getVersion();
+        cache.clear();
+        cache.put(criteria("a", 1), result(1), version);
+
+        assertNull(cache.get(criteria("a", 1)));
+
+        cache.put(criteria("a", 1), result(1), cache.getVersion());
+
+        assertNotNull(cache.get(criteria("a", 1)));
+    }
+
+    public void testDisabledCacheKeepsNothing() {
+        WineResultCache cache = new WineResultCache(0, 100);
+
+        cache.put(criteria("a", 1), result(1), cache.getVersion());
+
+        assertNull(cache.get(criteria("a", 1)));
+    }
+
+    private static SearchCriteria criteria(String query, int page) {
+        return new SearchCriteria(query, null, null, null, null, null, false, false, null, null,
+                                  WineTableColumn.FullName, true, page, 20);
+    }
+
+    private static WineResult result(int count) {
+        return new WineResult(Collections.<Wine>nCopies(count, null), WineTableColumn.FullName, true, 0, 1, 1, 20, count);
+    }
+}
@@ -0,0 +1,139 @@
+package com.gitlab.uu.vinproffsen.db;
+
+import com.gitlab.uu.vinproffsen.items.storage.*;
+import junit.framework.TestCase;
+
+import java.sql.Statement;
+import java.util.Collections;
+
+/**
+ * Tests for {@link WineSync} against an in-memory database.
+ *
+ * @author Niklas Persson
+ * @version 2016-03-31
+ */
+public class WineSyncTest extends TestCase {
+    // ITEMS table as created before wines were synced by article id
+    private static final String OLD_ITEMS_TABLE = "CREATE TABLE PUBLIC.items (id INT PRIMARY KEY AUTO_INCREMENT, " +
+            "name VARCHAR(255) NOT NULL, name2 VARCHAR(255), type VARCHAR(255), sell_start VARCHAR(255), " +
+            "area VARCHAR(255), country VARCHAR(255), producer VARCHAR(255), supplier VARCHAR(255), year INT, " +
+            "price INT NOT NULL, ecological BOOL DEFAULT FALSE, kosher BOOL DEFAULT FALSE, assortment VARCHAR(255), " +
+            "description VARCHAR(255), volume INT, price_per_liter INT, deposit INT, packaging VARCHAR(255), " +
+            "seal VARCHAR(255), alcohol DOUBLE, from_full VARCHAR(255), " +
+            "name_lower VARCHAR(255) AS LOWER(name), name2_lower VARCHAR(255) AS LOWER(name2), " +
+            "type_lower VARCHAR(255) AS LOWER(type), area_lower VARCHAR(255) AS LOWER(area), " +
+            "country_lower VARCHAR(255) AS LOWER(country), producer_lower VARCHAR(255) AS LOWER(producer), " +
+            "supplier_lower VARCHAR(255) AS LOWER(supplier))";
+
+    private H2WineDatabase db;
+
+    @Override
+    protected void setUp() throws Exception {
+        db = new H2WineMemoryDatabase("sync-" + getName());
+        db.connect();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        db.disconnect();
+    }
+
+    public void testSyncMatchesWinesImportedWithoutArticleIds() throws Exception {
+        db.transaction(connection -> {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute(OLD_ITEMS_TABLE);
+
+                statement.execute("INSERT INTO ITEMS (name, type, country, price, volume) VALUES ('Old 1', 'Rött vin', 'Frankrike', 10000, 750)");
+                statement.execute("INSERT INTO ITEMS (name, type, country, price, volume) VALUES ('Old 2', 'Rött vin', 'Frankrike', 10000, 750)");
+                statement.execute("INSERT INTO ITEMS (name, type, country, price, volume) VALUES ('By hand', 'Vitt vin', 'Frankrike', 9000, 750)");
+            }
+            return null;
+        });
+
+        db.createTables(false, false);
+
+        try (WineSync sync = db.startSync(2)) {
+            sync.add(wine(1, "Old 1", 10000));
+            sync.add(wine(2, "Old 2", 12000));
+            sync.commit();
+
+            // Old 1 gets its article id, Old 2 changed price so it can't be matched and is kept
+            assertEquals(1, sync.getUpdated());
+            assertEquals(1, sync.getInserted());
+            assertEquals(0, sync.getDeleted());
+        }
+
+        assertEquals(4, count("SELECT COUNT(*) FROM ITEMS"));
+        assertEquals(1, count("SELECT ARTICLE_ID FROM ITEMS WHERE NAME = 'Old 1'"));
+        assertEquals(1, count("SELECT COUNT(*) FROM ITEMS WHERE NAME = 'By hand' AND ARTICLE_ID IS NULL"));
+        assertEquals(1, count("SELECT COUNT(*) FROM ITEMS WHERE NAME = 'Old 2' AND ARTICLE_ID IS NULL"));
+
+        // the next sync matches the feed by article id
+        try (WineSync sync = db.startSync(2)) {
+            sync.add(wine(1, "Old 1", 10000));
+            sync.add(wine(2, "Old 2", 12000));
+            sync.commit();
+
+            assertEquals(0, sync.getInserted());
+            assertEquals(0, sync.getDeleted());
+            assertEquals(2, sync.getUnchanged());
+        }
+
+        assertEquals(4, count("SELECT COUNT(*) FROM ITEMS"));
+    }
+
+    public void testSyncAppliesChangesByArticleId() throws Exception {
+        db.createTables(false, false);
+
+        try (WineBulkInsert insert = db.startBulkInsert(2)) {
+            insert.add(wine(1, "Kept", 10000));
+            insert.add(wine(2, "Changed", 11000));
+            insert.add(wine(3, "Removed", 12000));
+            insert.commit();
+        }
+
+        db.addWine(new ItemName("By hand", null), ItemType.of("Vitt vin"), seller(9000),
+                   new ItemDetails(false, false, null, null), new BeverageDetails(750, null, null, null, null, 0.12));
+
+        try (WineSync sync = db.startSync(2)) {
+            sync.add(wine(1, "Kept", 10000));
+            sync.add(wine(2, "Changed", 13000));
+            sync.add(wine(4, "New", 14000));
+            sync.commit();
+
+            assertEquals(1, sync.getInserted());
+            assertEquals(1, sync.getUpdated());
+            assertEquals(1, sync.getDeleted());
+            assertEquals(1, sync.getUnchanged());
+        }
+
+        assertEquals(4, count("SELECT COUNT(*) FROM ITEMS"));
+        assertEquals(13000, count("SELECT PRICE FROM ITEMS WHERE ARTICLE_ID = 2"));
+        assertEquals(0, count("SELECT COUNT(*) FROM ITEMS WHERE ARTICLE_ID = 3"));
+        assertEquals(1, count("SELECT COUNT(*) FROM ITEMS WHERE NAME = 'By hand'"));
+    }
+
+    public void testSyncIsRolledBackWhenNotCommitted() throws Exception {
+        db.createTables(false, false);
+
+        try (WineSync sync = db.startSync(1)) {
+            sync.add(wine(1, "Pending", 10000));
+        }
+
+        assertEquals(0, count("SELECT COUNT(*) FROM ITEMS"));
+    }
+
+    private int count(String sql) throws Exception {
+        return db.query(sql, Collections.emptyList(), result -> result.next() ? result.getInt(1) : -1);
+    }
+
+    private static WineArticle wine(int articleId, String name, int price) {
+        return new WineArticle(articleId, new ItemName(name, null), ItemType.of("Rött vin"), seller(price),
+                               new ItemDetails(false, false, "FS", null),
+                               new BeverageDetails(750, price * 4 / 3, 0, "Flaska", "Kork", 0.13));
+    }
+
+    private static ItemSeller seller(int price) {
+        return new ItemSeller("2016-01-01", "Bordeaux", "Frankrike", "Producent", "Leverantör", 2014, price);
+    }
+}
@@ -0,0 +1,119 @@
+package com.gitlab.uu.vinproffsen.items;
+
+import com.gitlab.uu.vinproffsen.items.storage.*;
+
+import java.util.Random;
+
+/**
+ * Measures the heap used per wine with and without the {@link ItemDictionary}.
+ *
+ * Creates wines the way {@link ItemFactory} does, with a new string object for every attribute of every wine as they
+ * are read from the database, and with about as many distinct values per attribute as in the Systembolaget
+ * assortment. Types are always shared by {@link ItemType#of(String)}. The heap is measured after a full garbage
+ * collection before and after the wines are created.
+ *
+ * Run with the number of wines as the only argument, 20000 by default.
+ *
+ * @author Niklas Persson
+ * @version 2016-03-31
+ */
+public class ItemDictionaryBenchmark {
+    // Distinct values of each attribute
+    private static final String[] TYPES = values("Rött vin", "Vitt vin", "Mousserande vin", "Rosévin", "Halvtorrt vitt vin", 40);
+    private static final String[] COUNTRIES = values("Frankrike", "Italien", "Spanien", "Sydafrika", "Chile", 50);
+    private static final String[] AREAS = values("Bordeaux", "Toscana", "Rioja", "Western Cape", "Mendoza", 400);
+    private static final String[] PRODUCERS = values("Château", "Bodegas", "Domaine", "Cantina", "Weingut", 3000);
+    private static final String[] SUPPLIERS = values("Vinunic AB", "Arvid Nordquist", "Giertz Vinimport", "Bibendum AB", "Enoteca Sarl", 300);
+    private static final String[] SELL_STARTS = values("2015-01-01", "2015-03-01", "2015-09-01", "2016-01-01", "2016-03-01", 500);
+    private static final String[] ASSORTMENTS = values("FS", "BS", "TSE", "TSS", "FSB", 8);
+    private static final String[] PACKAGINGS = values("Flaska", "Box", "Påse", "PET-flaska", "Tetra", 12);
+    private static final String[] SEALS = values("Kork", "Skruvkapsel", "Plastkork", "Glaspropp", "Kapsyl", 8);
+
+    public static void main(String[] args) {
+        int count = (args.length > 0) ? Integer.parseInt(args[0]) : 20000;
+
+        // warm up so class loading isn't measured
+        createWines(1000, null);
+        createWines(1000, new ItemDictionary(16384));
+
+        double without = measure(count, null);
+        double with = measure(count, new ItemDictionary(16384));
+
+        System.out.println(String.format("%d wines: %.0f bytes per wine without dictionary, %.0f bytes with (%.0f%% less)",
+                                         count, without, with, 100 * (without - with) / without));
+    }
+
+    /**
+     * Measure the heap used by the wines.
+     * @param count number of wines
+     * @param dictionary dictionary, or null to not share any values
+     * @return bytes per wine
+     */
+    private static double measure(int count, ItemDictionary dictionary) {
+        long before = usedMemory();
+        Wine[] wines = createWines(count, dictionary);
+        long after = usedMemory();
+
+        // keep the wines reachable until they are measured
+        if (wines.length != count)
+            throw new IllegalStateException();
+
+        return (double) (after - before) / count;
+    }
+
+    private static Wine[] createWines(int count, ItemDictionary dictionary) {
+        Random random = new Random(count);
+        Wine[] wines = new Wine[count];
+
+        for (int i = 0; i < count; i++) {
+            String typeText = copy(TYPES, random);
+            ItemType type = ItemType.of(typeText);
+
+            ItemName name = new ItemName("Vin " + i, null);
+            ItemSeller seller = new ItemSeller(share(dictionary, copy(SELL_STARTS, random)), share(dictionary, copy(AREAS, random)),
+                                               share(dictionary, copy(COUNTRIES, random)), share(dictionary, copy(PRODUCERS, random)),
+                                               share(dictionary, copy(SUPPLIERS, random)), 2010 + random.nextInt(6),
+                                               5000 + random.nextInt(50000));
+            ItemDetails details = new ItemDetails(random.nextBoolean(), false, share(dictionary, copy(ASSORTMENTS, random)), null);
+            BeverageDetails beverage = new BeverageDetails(750, 10000, 0, share(dictionary, copy(PACKAGINGS, random)),
+                                                           share(dictionary, copy(SEALS, random)), 0.13);
+
+            wines[i] = new Wine(i, name, type, seller, details, beverage);
+        }
+
+        return wines;
+    }
+
+    private static String share(ItemDictionary dictionary, String value) {
+        return (dictionary != null) ? dictionary.get(value) : value;
+    }
+
+    /**
+     * Pick a value and copy it, like a string read from a result set.
+     */
+    private static String copy(String[] values, Random random) {
+        return new String(values[random.nextInt(values.length)].toCharArray());
+    }
+
+    /**
+     * Create distinct values by numbering the base values.
+     */
+    private static String[] values(String a, String b, String c, String d, String e, int count) {
+        String[] base = new String[] { a, b, c, d, e };
+        String[] values = new String[count];
+
+        for (int i = 0; i < count; i++)
+            values[i] = (i < base.length) ? base[i] : base[i % base.length] + " " + (i / base.length);
+
+        return values;
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+
+        for (int i = 0; i < 3; i++)
+            System.gc();
+
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
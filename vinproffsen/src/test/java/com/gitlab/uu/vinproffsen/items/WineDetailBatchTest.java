@@ -0,0 +1,58 @@
+package com.gitlab.uu.vinproffsen.items;
+
+import com.gitlab.uu.vinproffsen.exceptions.WineDatabaseException;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests for {@link WineDetailBatch}.
+ *
+ * @author Niklas Persson
+ * @version 2016-03-31
+ */
+public class WineDetailBatchTest extends TestCase {
+    public void testDetailsOfAllWinesAreReadWithOneQuery() {
+        List<List<Integer>> queries = new ArrayList<>();
+        WineDetailBatch batch = new WineDetailBatch((b, ids) -> queries.add(ids));
+
+        Wine first = wine(1, batch);
+        Wine second = wine(2, batch);
+
+        first.getDescription();
+        second.getSeal();
+        first.getProducer();
+
+        assertEquals(1, queries.size());
+        assertEquals(2, queries.get(0).size());
+    }
+
+    public void testFailedQueryIsTriedAgain() {
+        int[] queries = { 0 };
+        WineDetailBatch batch = new WineDetailBatch((b, ids) -> {
+            if (++queries[0] == 1)
+                throw new WineDatabaseException("Connection lost");
+        });
+
+        Wine wine = wine(1, batch);
+
+        assertFalse(wine.loadDetails());
+        assertEquals(1, queries[0]);
+
+        wine.getDescription();
+        assertEquals(2, queries[0]);
+
+        assertTrue(wine.loadDetails());
+        wine.getDescription();
+        assertEquals(2, queries[0]);
+    }
+
+    private static Wine wine(int id, WineDetailBatch batch) {
+        Wine wine = new Wine();
+        wine.id = id;
+        batch.add(wine);
+
+        return wine;
+    }
+}